@@ -0,0 +1,50 @@
+package kademlia;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main class of benchmarks.jar: it runs the JMH benchmarks selected by the command
+ * line (all of them by default, see java -jar benchmarks.jar -h for the options of JMH),
+ * always with the gc profiler, which adds to the throughput and the average time of every
+ * benchmark its allocation rate (gc.alloc.rate, in MB/s), the bytes allocated per
+ * operation (gc.alloc.rate.norm) and the number of garbage collections. The results are
+ * also written to jmh-result.csv, unless another file or format is chosen with -rff and
+ * -rf
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions command = new CommandLineOptions(args);
+		if (command.shouldHelp()) {
+			command.showHelp();
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(command);
+		// Unless -prof gc is given again, I add the gc profiler
+		if (command.getProfilers().stream().noneMatch(p -> p.getKlass().equals("gc")
+				|| p.getKlass().equals(GCProfiler.class.getName())))
+			options.addProfiler(GCProfiler.class);
+		if (!command.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.CSV);
+		if (!command.getResult().hasValue())
+			options.result("jmh-result.csv");
+		Runner runner = new Runner(options.build());
+		if (command.shouldList())
+			runner.list();
+		else
+			runner.run();
+	}
+
+}
@@ -0,0 +1,199 @@
+package kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The JMH microbenchmarks of the hot paths of the simulation: RoutingTable.tryAddNode,
+ * findBestEntries and findBucketIndex, NodeDescriptor.nodeLookup, Utils.updateKClosest,
+ * Utils.generateNewNode, the TimingWheel of the churn simulation and the ValueStore of
+ * the nodes. Every benchmark is run for every combination of the parameters m, k, n and
+ * tree, in its own forked JVM, on a fixture built once per fork: a network of n nodes
+ * built by the Coordinator (with a fixed seed), plus the routing table of an extra node
+ * which knows all of them. Every benchmark reports the throughput and the average time,
+ * and BenchmarkRunner adds the allocation rate of the gc profiler.
+ * Build and run it from the bench folder with:
+ * mvn package
+ * java -jar target/benchmarks.jar [JMH options]
+ * for example -p m=64 -p n=1000 to choose the parameters (default m=64,160 k=20
+ * n=1000,10000 tree=false), or a regular expression such as nodeLookup to run only the
+ * benchmarks whose name matches it
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class RoutingBenchmarks {
+
+	/* Public Fields (the parameters of the benchmarks) */
+	@Param({ "64", "160" })
+	public int m;
+	@Param({ "20" })
+	public int k;
+	@Param({ "1000", "10000" })
+	public int n;
+	@Param({ "false" })
+	public boolean tree;
+
+	/* Private Fields */
+
+	private static final long SEED = 42;
+	// The number of precomputed inputs (a power of two)
+	private static final int INPUTS = 1024;
+	private static final int MASK = INPUTS - 1;
+
+	private NodeRegistry registry;
+	private RoutingTable table;
+	private NodeId[] targets;
+	private NodeDescriptor[] sources;
+	private Node[] buffer;
+	private List<Node> candidates;
+	private List<List<Node>> responses;
+	private TimingWheel wheel;
+	private TimingWheel.Handler handler;
+	private ValueStore store;
+	private long[] value;
+	private Random rand;
+	private int invocation;
+
+	/* Methods */
+
+	/**
+	 * Builds the fixture of the benchmarks
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		Coordinator coordinator = new Coordinator(n, m, k);
+		coordinator.setSeed(SEED);
+		coordinator.setVerbose(false);
+		coordinator.setTreeRoutingTables(tree);
+		coordinator.buildNetwork();
+		registry = coordinator.getRegistry();
+
+		rand = new Random(SEED);
+		table = new RoutingTable(m, k, Utils.generateNewNode(m, rand).getId(), registry, tree);
+		for (int h = 0; h < registry.size(); h++)
+			table.tryAddNode(registry.getNode(h));
+		targets = new NodeId[INPUTS];
+		sources = new NodeDescriptor[INPUTS];
+		responses = new ArrayList<>();
+		for (int i = 0; i < INPUTS; i++) {
+			targets[i] = Utils.generateNewNode(m, rand).getId();
+			sources[i] = registry.random(rand);
+			responses.add(table.findBestEntries(k, targets[i]));
+		}
+		buffer = new Node[k];
+		candidates = table.findBestEntries(k, targets[0]);
+
+		// A timer per node, rescheduled every time it fires after 1 to 2n milliseconds
+		wheel = new TimingWheel();
+		for (int h = 0; h < n; h++)
+			wheel.schedule(1 + rand.nextInt(2 * n), 0, h, 0);
+		handler = (type, a, b) -> wheel.schedule(wheel.now() + 1 + rand.nextInt(2 * n), type, a, b);
+
+		// A store with a value for every target
+		store = new ValueStore();
+		for (int t = 0; t < INPUTS; t++)
+			store.put(targets[t], t, 0, Long.MAX_VALUE, false);
+		value = new long[2];
+	}
+
+	/**
+	 * Every node is already known, so this is the refresh of an entry (or a ping)
+	 */
+	@Benchmark
+	public void tryAddNode() {
+		table.tryAddNode(registry.getNode(next() % n));
+	}
+
+	@Benchmark
+	public int findBestEntries() {
+		return table.findBestEntries(k, targets[next() & MASK], buffer);
+	}
+
+	@Benchmark
+	public List<Node> findBestEntriesList() {
+		return table.findBestEntries(k, targets[next() & MASK]);
+	}
+
+	@Benchmark
+	public long findBucketIndex() {
+		return table.findBucketIndex(targets[next() & MASK]);
+	}
+
+	/**
+	 * The lookups update the routing tables of the network, as in the simulation
+	 */
+	@Benchmark
+	public List<Node> nodeLookup() {
+		int i = next() & MASK;
+		return sources[i].nodeLookup(targets[i]);
+	}
+
+	/**
+	 * The copy of the current k closest is part of the measured operation
+	 */
+	@Benchmark
+	public List<Node> updateKClosest() {
+		List<Node> kClosest = new ArrayList<>(candidates);
+		Utils.updateKClosest(kClosest, responses.get(next() & MASK), targets[0], k);
+		return kClosest;
+	}
+
+	@Benchmark
+	public Node generateNewNode() {
+		return Utils.generateNewNode(m, rand);
+	}
+
+	/**
+	 * Every operation advances the clock by one millisecond, firing one event on average
+	 */
+	@Benchmark
+	public long timingWheel() {
+		return wheel.run(wheel.now() + 1, handler);
+	}
+
+	@Benchmark
+	public void valueStoreGet(Blackhole blackhole) {
+		blackhole.consume(store.get(targets[next() & MASK], 0, value));
+		blackhole.consume(value[0]);
+	}
+
+	/**
+	 * The value of an existing key is overwritten
+	 */
+	@Benchmark
+	public void valueStorePut() {
+		int i = next();
+		store.put(targets[i & MASK], i, 0, Long.MAX_VALUE, false);
+	}
+
+	/**
+	 * Returns the number of the invocation, used to pick the input of the operation
+	 */
+	private int next() {
+		return invocation++ & Integer.MAX_VALUE;
+	}
+
+}
@@ -0,0 +1,166 @@
+package kademlia;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * The end to end benchmark of the simulation: it builds the network for every point of
+ * a grid of (m, k, n), and records for each one the build time, the joins per second,
+ * the RPCs per second, the peak heap and the heap retained by the network (in total and
+ * per node). The results are appended, one line per point, to a csv file, together with
+ * the scaling exponent of the build time with respect to the previous n (the slope of
+ * the curve in log-log scale: about 1 for a linear build, more than 1 if it is super linear).
+ * Every point builds a new Coordinator with the same seed, so the runs can be compared
+ * across versions of the simulation.
+ * It is not a JMH benchmark, since every point is a single long build: it is packaged in
+ * the jar of the benchmark module, so build and run it from the bench folder with:
+ * mvn package
+ * java -Xmx8g -cp target/benchmarks.jar kademlia.ScalabilityBenchmark [options]
+ * where the options are (lists are comma separated):
+ * --m=LIST --k=LIST --n=LIST  the grid (default m=64 k=20 n=1000,10000,100000)
+ * --threads=T                 threads building the network (default 1)
+ * --tree                      the routing tables are lazily split trees
+ * --seed=S                    seed of every run (default 42)
+ * --out=FILE                  the csv file (default scalability.csv)
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class ScalabilityBenchmark {
+
+	/* Public and Static Fields */
+	public static final String HEADER = "m,k,n,threads,tree,build_ms,joins_per_s,rpcs,rpcs_per_s,"
+			+ "peak_heap_bytes,retained_bytes,bytes_per_node,time_exponent";
+
+	public static void main(String[] args) throws IOException {
+		int[] ms = { 64 }, ks = { 20 }, ns = { 1000, 10000, 100000 };
+		int threads = 1;
+		boolean tree = false;
+		long seed = 42;
+		String out = "scalability.csv";
+		for (String arg : args) {
+			String name = arg, value = null;
+			if (arg.contains("=")) {
+				name = arg.substring(0, arg.indexOf('='));
+				value = arg.substring(arg.indexOf('=') + 1);
+			}
+			switch (name) {
+			case "--m":
+				ms = parseList(value);
+				break;
+			case "--k":
+				ks = parseList(value);
+				break;
+			case "--n":
+				ns = parseList(value);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--tree":
+				tree = true;
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--out":
+				out = value;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + arg);
+			}
+		}
+
+		// A small build first, so that the first point is not measured with cold code
+		build(ms[0], ks[0], Math.min(1000, ns[0]), threads, tree, seed);
+
+		boolean exists = Files.exists(Paths.get(out));
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(out),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+			if (!exists)
+				writer.println(HEADER);
+			System.out.println(HEADER);
+			for (int m : ms) {
+				for (int k : ks) {
+					long previousN = 0, previousMillis = 0;
+					for (int n : ns) {
+						String line = measure(m, k, n, threads, tree, seed, previousN, previousMillis);
+						writer.println(line);
+						writer.flush();
+						System.out.println(line);
+						previousN = n;
+						previousMillis = Long.parseLong(line.split(",")[5]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the network of a point of the grid, and returns its csv line
+	 */
+	private static String measure(int m, int k, int n, int threads, boolean tree, long seed,
+			long previousN, long previousMillis) {
+		long baseline = usedHeapAfterGc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+
+		Coordinator coordinator = build(m, k, n, threads, tree, seed);
+
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		// The coordinator is still used below, so the network is not collected here
+		long retained = usedHeapAfterGc() - baseline;
+		long millis = Math.max(1, coordinator.getBuildMillis());
+		double exponent = (previousN == 0) ? Double.NaN
+				: Math.log((double) millis / Math.max(1, previousMillis)) / Math.log((double) n / previousN);
+		return String.format(Locale.ROOT, "%d,%d,%d,%d,%b,%d,%.1f,%d,%.1f,%d,%d,%.1f,%.3f", m, k, n,
+				coordinator.getThreads(), tree, millis, (n - 1) * 1000.0 / millis, coordinator.getRpcCount(),
+				coordinator.getRpcCount() * 1000.0 / millis, peak, retained, (double) retained / n, exponent);
+	}
+
+	/**
+	 * Builds a network with the given parameters
+	 */
+	private static Coordinator build(int m, int k, int n, int threads, boolean tree, long seed) {
+		Coordinator coordinator = new Coordinator(n, m, k);
+		coordinator.setSeed(seed);
+		coordinator.setThreads(threads);
+		coordinator.setTreeRoutingTables(tree);
+		coordinator.setVerbose(false);
+		coordinator.buildNetwork();
+		return coordinator;
+	}
+
+	/**
+	 * Returns the heap in use after (a best effort of) a full garbage collection
+	 */
+	private static long usedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Parses a comma separated list of integers
+	 */
+	private static int[] parseList(String value) {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+}
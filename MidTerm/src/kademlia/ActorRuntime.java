@@ -0,0 +1,188 @@
+package kademlia;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class models the execution mode where every NodeDescriptor is an actor: the
+ * RPCs sent to a node are messages put in its mailbox, and the mailbox is drained by
+ * a single task at a time, so a node serves its messages one after the other, while
+ * different nodes serve them concurrently. A findNode is an asynchronous request, whose
+ * response is delivered in the queue of the lookup that sent it.
+ * Mailboxes (and the joins driving the lookups) are served by virtual threads when the
+ * JVM provides them (Java 21 or later), otherwise by a work stealing pool
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class ActorRuntime {
+
+	/* Private Fields */
+
+	private final Coordinator coordinator;
+	private final ExecutorService mailboxExecutor;
+	private final AtomicReferenceArray<Mailbox> mailboxes;
+	private final LongAdder messages;
+	private final boolean virtualThreads;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds the runtime for the nodes of the coordinator
+	 * @param coordinator the coordinator owning the nodes
+	 * @param capacity the maximum number of nodes (n)
+	 */
+	public ActorRuntime(Coordinator coordinator, int capacity) {
+		this.coordinator = coordinator;
+		ExecutorService virtual = newVirtualThreadExecutor();
+		virtualThreads = (virtual != null);
+		mailboxExecutor = virtualThreads ? virtual : Executors.newWorkStealingPool();
+		mailboxes = new AtomicReferenceArray<>(capacity);
+		messages = new LongAdder();
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns a new executor starting a virtual thread per task, if the JVM supports them
+	 * @return the executor, or null if virtual threads are not available
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sends asynchronously a findNode to the node with given handle. When the node serves
+	 * the message, its response is written in the buffer of the request, and the request is
+	 * put in the responses queue
+	 * @param request the request, carrying the target and the buffer for the response
+	 * @param traveled the nodes traveled by the lookup (shared by its concurrent requests)
+	 * @param responses the queue where the served request is put
+	 */
+	public void sendFindNode(Request request, Queue<Node> traveled, BlockingQueue<Request> responses) {
+		int handle = request.to.getHandle();
+		mailboxOf(handle).post(() -> {
+			try {
+				// An offline node never answers: the request comes back as failed
+				if (request.to.isAlive())
+					request.count = coordinator.askRPCInstance(handle).findNode(request.target, traveled, request.buffer);
+				else
+					request.count = -1;
+			} catch (RuntimeException e) {
+				request.count = -1;
+				request.failure = e;
+			} finally {
+				// The lookup is always answered, carrying the failure if something went wrong
+				responses.add(request);
+			}
+		});
+	}
+
+	/**
+	 * Returns the mailbox of the given node, creating it the first time
+	 */
+	private Mailbox mailboxOf(int handle) {
+		Mailbox mailbox = mailboxes.get(handle);
+		if (mailbox == null) {
+			mailboxes.compareAndSet(handle, null, new Mailbox());
+			mailbox = mailboxes.get(handle);
+		}
+		return mailbox;
+	}
+
+	/**
+	 * Returns the number of messages served by the actors
+	 * @return the number of messages
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 * Tells if the mailboxes are served by virtual threads
+	 * @return true if virtual threads are used
+	 */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Stops the threads serving the mailboxes
+	 */
+	public void shutdown() {
+		mailboxExecutor.shutdown();
+	}
+
+	/**
+	 * This class models a findNode request sent by a lookup, together with its response
+	 */
+	public static final class Request {
+		final Node to;
+		final NodeId target;
+		final Node[] buffer;
+		final int hop;
+		// The number of nodes in the response, -1 if the node did not respond
+		int count;
+		// The exception thrown while serving the request, null if it was served
+		RuntimeException failure;
+
+		/**
+		 * Constructor of the request
+		 * @param to the node receiving the request
+		 * @param target the target id of the lookup
+		 * @param buffer the buffer where the response is written
+		 * @param hop the number of hops from the node starting the lookup
+		 */
+		public Request(Node to, NodeId target, Node[] buffer, int hop) {
+			this.to = to;
+			this.target = target;
+			this.buffer = buffer;
+			this.hop = hop;
+		}
+	}
+
+	/**
+	 * The mailbox of a node: the messages are served in order, by at most one task at a time
+	 */
+	private final class Mailbox {
+		private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		/**
+		 * Puts a message in the mailbox, scheduling the mailbox if nobody is serving it
+		 */
+		void post(Runnable message) {
+			queue.add(message);
+			if (scheduled.compareAndSet(false, true))
+				mailboxExecutor.execute(this::drain);
+		}
+
+		/**
+		 * Serves the messages in the mailbox, then releases it (scheduling it again if a
+		 * message arrived in the meantime)
+		 */
+		private void drain() {
+			Runnable message;
+			while ((message = queue.poll()) != null) {
+				message.run();
+				messages.increment();
+			}
+			scheduled.set(false);
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+				mailboxExecutor.execute(this::drain);
+		}
+	}
+
+}
@@ -0,0 +1,434 @@
+package kademlia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class models a checkpoint of a whole simulated network, from which the network
+ * can be restored much faster than it is built, and whose construction can be resumed
+ * to add more nodes.
+ * A checkpoint file is a binary dump of NetworkDump (so it can be read by the same tools),
+ * whose routing tables are written bucket by bucket in least recently seen order, followed
+ * by a trailer, little endian as well, made of:
+ * - 64 bytes: the magic number 0x4B41444B ("KADK"), the version (2), k, the flags (1 for
+ *   tree routing tables), the seed (long), the collisions, the number of joined nodes j
+ *   (ints), the build time in milliseconds, the RPCs and the size s of the state (longs),
+ *   and 8 bytes set to 0;
+ * - n IPv4 addresses (ints) and n depths of the tree routing tables (ints);
+ * - j handles (ints): the nodes whose join was completed, in order of completion;
+ * - s bytes of state: the metrics (see LookupMetrics.writeTo), then the length and the
+ *   serialized form of the random sources of the identifiers and of the joins, so that
+ *   the construction resumed from a checkpoint joins the same nodes of a single build.
+ * The version 2 added the counters of the removals and of the timeouts to the metrics,
+ * which now start with 6 counters (longs) instead of 4, so the checkpoints of version 1
+ * are rejected.
+ * The restore maps the file in memory: the nodes are registered in order of handle by a
+ * single thread, then the routing tables (and the in degrees) are filled by many threads,
+ * each one mapping its own region of the file
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Checkpoint {
+
+	/* Public and Static Fields */
+	public static final int MAGIC = 0x4B41444B;
+	public static final int VERSION = 2;
+	public static final int TRAILER_BYTES = 64;
+
+	/* Private Fields */
+
+	private static final int BUFFER_BYTES = 1 << 20;
+	// The maximum size of a region of the file mapped at once
+	private static final long MAX_MAPPING = 1L << 30;
+
+	private final int m, k;
+	private final boolean tree;
+	private final long seed;
+	private final int collisions;
+	private final long buildMillis;
+	private final long rpcs;
+	private final int[] joined;
+	private final Random idRand, joinRand;
+	private final LookupMetrics metrics;
+
+	// The layout of the file, known after it is written or read
+	private int n;
+	private long edges;
+	private long trailerStart;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the checkpoint of a coordinator
+	 * @param m the number of bits of the identifiers
+	 * @param k the size of the buckets
+	 * @param tree true if the routing tables are trees
+	 * @param seed the seed of the simulation
+	 * @param collisions the number of collisions of the identifiers
+	 * @param buildMillis the milliseconds spent building the network
+	 * @param rpcs the number of RPCs sent while building the network
+	 * @param joined the handles of the nodes whose join is completed, in order of completion
+	 * @param idRand the random source of the identifiers
+	 * @param joinRand the random source of the joins
+	 * @param metrics the metrics of the network
+	 */
+	public Checkpoint(int m, int k, boolean tree, long seed, int collisions, long buildMillis, long rpcs,
+			int[] joined, Random idRand, Random joinRand, LookupMetrics metrics) {
+		this.m = m;
+		this.k = k;
+		this.tree = tree;
+		this.seed = seed;
+		this.collisions = collisions;
+		this.buildMillis = buildMillis;
+		this.rpcs = rpcs;
+		this.joined = joined;
+		this.idRand = idRand;
+		this.joinRand = joinRand;
+		this.metrics = metrics;
+	}
+
+	/* Methods */
+
+	/**
+	 * Writes the checkpoint of the network. The network must not change while it is written
+	 * @param path the file to write
+	 * @param registry the registry of the nodes of the network
+	 * @param threads the number of threads writing the routing tables
+	 * @return the number of bytes written
+	 * @throws IOException if the file cannot be written
+	 */
+	public long write(Path path, NodeRegistry registry, int threads) throws IOException {
+		trailerStart = new NetworkDump(registry, m, threads).writeBinary(path);
+		n = registry.size();
+		byte[] randoms = serializeRandoms(idRand, joinRand);
+		ByteBuffer state = ByteBuffer.allocate(metrics.serializedSize() + 4 + randoms.length).order(ByteOrder.LITTLE_ENDIAN);
+		metrics.writeTo(state);
+		state.putInt(randoms.length).put(randoms);
+		state.flip();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(k).putInt(tree ? 1 : 0).putLong(seed);
+			buffer.putInt(collisions).putInt(joined.length).putLong(buildMillis).putLong(rpcs);
+			buffer.putLong(state.remaining()).putLong(0);
+			long position = trailerStart;
+			for (int h = 0; h < n; h++) {
+				if (buffer.remaining() < 4)
+					position = NetworkDump.flush(channel, buffer, position);
+				buffer.putInt(addressToInt(registry.getNode(h).getIpAddress()));
+			}
+			for (int h = 0; h < n; h++) {
+				if (buffer.remaining() < 4)
+					position = NetworkDump.flush(channel, buffer, position);
+				buffer.putInt(registry.get(h).exposeTreeDepth());
+			}
+			for (int handle : joined) {
+				if (buffer.remaining() < 4)
+					position = NetworkDump.flush(channel, buffer, position);
+				buffer.putInt(handle);
+			}
+			position = NetworkDump.flush(channel, buffer, position);
+			NetworkDump.writeFully(channel, state, position);
+			return position + state.capacity();
+		}
+	}
+
+	/**
+	 * Reads the header and the state of a checkpoint, without restoring the nodes
+	 * @param path the file of the checkpoint
+	 * @return the checkpoint, whose nodes can be restored with restoreNodes
+	 * @throws IOException if the file cannot be read, or it is not a checkpoint
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = map(channel, 0, NetworkDump.HEADER_BYTES);
+			if (header.getInt() != NetworkDump.MAGIC || header.getInt() != NetworkDump.VERSION)
+				throw new IOException(path + " is not a binary dump of the network");
+			int m = header.getInt();
+			int n = header.getInt();
+			long edges = header.getLong();
+			long trailerStart = NetworkDump.HEADER_BYTES + 8L * (n + 1) + 4L * edges + 24L * n;
+			if (channel.size() < trailerStart + TRAILER_BYTES)
+				throw new IOException(path + " is a binary dump without the checkpoint trailer");
+
+			ByteBuffer trailer = map(channel, trailerStart, TRAILER_BYTES);
+			if (trailer.getInt() != MAGIC || trailer.getInt() != VERSION)
+				throw new IOException(path + " has an unknown checkpoint trailer");
+			int k = trailer.getInt();
+			boolean tree = (trailer.getInt() & 1) != 0;
+			long seed = trailer.getLong();
+			int collisions = trailer.getInt();
+			int joinedCount = trailer.getInt();
+			long buildMillis = trailer.getLong();
+			long rpcs = trailer.getLong();
+			long stateBytes = trailer.getLong();
+
+			long joinedStart = trailerStart + TRAILER_BYTES + 8L * n;
+			int[] joined = new int[joinedCount];
+			map(channel, joinedStart, 4L * joinedCount).asIntBuffer().get(joined);
+			ByteBuffer state = map(channel, joinedStart + 4L * joinedCount, stateBytes);
+			LookupMetrics metrics = new LookupMetrics();
+			metrics.readFrom(state);
+			byte[] randoms = new byte[state.getInt()];
+			state.get(randoms);
+			Random[] sources = deserializeRandoms(randoms);
+
+			Checkpoint checkpoint = new Checkpoint(m, k, tree, seed, collisions, buildMillis, rpcs, joined,
+					sources[0], sources[1], metrics);
+			checkpoint.n = n;
+			checkpoint.edges = edges;
+			checkpoint.trailerStart = trailerStart;
+			return checkpoint;
+		}
+	}
+
+	/**
+	 * Restores the nodes of a checkpoint returned by read: it registers them in the registry
+	 * of the coordinator (which must be empty, and configured with the same m, k and kind of
+	 * routing tables), then fills their routing tables and their in degrees
+	 * @param path the file of the checkpoint
+	 * @param coordinator the coordinator of the restored network
+	 * @param threads the number of threads filling the routing tables
+	 * @throws IOException if the file cannot be read
+	 */
+	public void restoreNodes(Path path, Coordinator coordinator, int threads) throws IOException {
+		NodeRegistry registry = coordinator.getRegistry();
+		// The partitions are small enough that each region of the file can be mapped at once
+		long maxDegree = (long) m * k;
+		int partitionSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, MAX_MAPPING / (4 * maxDegree + 32)));
+		int partitions = Math.max(Math.max(1, threads), (int) ((n + (long) partitionSize - 1) / partitionSize));
+		partitions = Math.min(partitions, Math.max(1, n));
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long idsStart = NetworkDump.HEADER_BYTES + 8L * (n + 1) + 4L * edges;
+			long addressesStart = trailerStart + TRAILER_BYTES;
+			// First the nodes are registered, in order of handle
+			for (int p = 0; p < partitions; p++) {
+				int from = (int) ((long) n * p / partitions);
+				int to = (int) ((long) n * (p + 1) / partitions);
+				LongBuffer ids = map(channel, idsStart + 24L * from, 24L * (to - from)).asLongBuffer();
+				IntBuffer addresses = map(channel, addressesStart + 4L * from, 4L * (to - from)).asIntBuffer();
+				for (int h = from; h < to; h++) {
+					long low = ids.get(), middle = ids.get(), high = ids.get();
+					Node node = new Node(new NodeId(high, middle, low), intToAddress(addresses.get()));
+					if (registry.register(new NodeDescriptor(node, m, k, coordinator, h + 1)) != h)
+						throw new IllegalStateException("the registry of the restored network is not empty");
+				}
+			}
+
+			// Then every partition fills its routing tables
+			if (partitions == 1) {
+				restorePartition(channel, registry, 0, n);
+				return;
+			}
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(partitions, Math.max(1, threads)));
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int p = 0; p < partitions; p++) {
+					int from = (int) ((long) n * p / partitions);
+					int to = (int) ((long) n * (p + 1) / partitions);
+					futures.add(pool.submit(() -> {
+						restorePartition(channel, registry, from, to);
+						return null;
+					}));
+				}
+				for (Future<?> future : futures)
+					future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while restoring the checkpoint", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IllegalStateException("a partition of the checkpoint failed", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Fills the routing tables of the nodes with handles in [from, to), and adds their
+	 * edges to the in degrees
+	 */
+	private void restorePartition(FileChannel channel, NodeRegistry registry, int from, int to) throws IOException {
+		LongBuffer offsets = map(channel, NetworkDump.HEADER_BYTES + 8L * from, 8L * (to - from + 1)).asLongBuffer();
+		long first = offsets.get(0);
+		long targetsStart = NetworkDump.HEADER_BYTES + 8L * (n + 1);
+		IntBuffer targets = map(channel, targetsStart + 4L * first, 4L * (offsets.get(to - from) - first)).asIntBuffer();
+		IntBuffer depths = map(channel, trailerStart + TRAILER_BYTES + 4L * n + 4L * from, 4L * (to - from)).asIntBuffer();
+		int[] neighbours = new int[64];
+		for (int h = from; h < to; h++) {
+			int degree = (int) (offsets.get(h - from + 1) - offsets.get(h - from));
+			if (neighbours.length < degree)
+				neighbours = new int[Math.max(degree, neighbours.length * 2)];
+			targets.get(neighbours, 0, degree);
+			registry.get(h).restoreRoutingTable(depths.get(), neighbours, 0, degree);
+			for (int i = 0; i < degree; i++)
+				registry.addInDegree(neighbours[i], 1);
+		}
+	}
+
+	/**
+	 * Maps a region of the file in memory, as a little endian buffer
+	 */
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		return channel.map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Packs a dotted IPv4 address in an int
+	 */
+	private static int addressToInt(String address) {
+		int packed = 0;
+		for (String part : address.split("\\."))
+			packed = (packed << 8) | Integer.parseInt(part);
+		return packed;
+	}
+
+	/**
+	 * Unpacks an IPv4 address packed by addressToInt
+	 */
+	private static String intToAddress(int packed) {
+		return (packed >>> 24) + "." + ((packed >>> 16) & 0xFF) + "." + ((packed >>> 8) & 0xFF) + "." + (packed & 0xFF);
+	}
+
+	/**
+	 * Returns the serialized form of the two random sources, that keeps their state
+	 */
+	private static byte[] serializeRandoms(Random first, Random second) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(first);
+			out.writeObject(second);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the two random sources serialized by serializeRandoms
+	 */
+	private static Random[] deserializeRandoms(byte[] bytes) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return new Random[] { (Random) in.readObject(), (Random) in.readObject() };
+		} catch (ClassNotFoundException e) {
+			throw new IOException("the random sources of the checkpoint cannot be read", e);
+		}
+	}
+
+	/**
+	 * Returns the number of bits of the identifiers
+	 * @return m
+	 */
+	public int getM() {
+		return m;
+	}
+
+	/**
+	 * Returns the size of the buckets
+	 * @return k
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Returns the number of nodes of the network
+	 * @return the number of nodes
+	 */
+	public int getNodes() {
+		return n;
+	}
+
+	/**
+	 * Tells if the routing tables are trees
+	 * @return true for tree routing tables
+	 */
+	public boolean isTree() {
+		return tree;
+	}
+
+	/**
+	 * Returns the seed of the simulation
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the number of collisions of the identifiers
+	 * @return the collisions
+	 */
+	public int getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Returns the milliseconds spent building the network
+	 * @return the build time
+	 */
+	public long getBuildMillis() {
+		return buildMillis;
+	}
+
+	/**
+	 * Returns the number of RPCs sent while building the network
+	 * @return the RPCs
+	 */
+	public long getRpcs() {
+		return rpcs;
+	}
+
+	/**
+	 * Returns the handles of the nodes whose join is completed, in order of completion
+	 * @return the handles
+	 */
+	public int[] getJoined() {
+		return joined;
+	}
+
+	/**
+	 * Returns the random source of the identifiers, in the state it had at the checkpoint
+	 * @return the random source
+	 */
+	public Random getIdRandom() {
+		return idRand;
+	}
+
+	/**
+	 * Returns the random source of the joins, in the state it had at the checkpoint
+	 * @return the random source
+	 */
+	public Random getJoinRandom() {
+		return joinRand;
+	}
+
+	/**
+	 * Returns the metrics of the network
+	 * @return the metrics
+	 */
+	public LookupMetrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,440 @@
+package kademlia;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class models a discrete-event simulation of churn on a network already built: the
+ * nodes leave and come back, crash for good, or arrive for the first time, on a virtual
+ * clock (one tick per millisecond) driven by a TimingWheel. Every online node also runs
+ * the maintenance of its routing table:
+ * - refresh: a lookup of a random id in one of its buckets, cycling over the buckets that
+ *   are not empty in a network of this size (the log2 n + 2 highest indexes);
+ * - ping: the least recently seen node of one of the buckets, cycling in the same way, is
+ *   pinged, and if it does not respond it is removed when the RPC times out.
+ * Since the offline nodes do not respond, the lookups mark them as failed (an RPC timeout)
+ * and the least recently seen algorithm of the routing tables evicts them, so the routing
+ * tables degrade and recover as they would under churn. The sessions and the downtimes
+ * are exponential, the arrivals are a Poisson process (by default balancing the crashes,
+ * so the number of nodes stays about the same).
+ * Every sample interval a line reports the nodes online, the fraction of stale entries in
+ * the routing tables (pointing to offline nodes), the evictions, removals and timeouts in
+ * the interval, and the accuracy of a few probe lookups, checked against an XorIndex of
+ * the nodes online, together with the fraction of the probes that returned less than
+ * min(k, online) nodes (a lookup returns only nodes that responded, so this happens only
+ * if the origin cannot reach enough nodes online). The simulation runs on a single thread, so it is reproducible given
+ * the seed
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class ChurnSimulation {
+
+	/* Private Fields */
+
+	// The types of the events
+	private static final int ARRIVAL = 0, DEPARTURE = 1, REJOIN = 2, REFRESH = 3, PING = 4, TIMEOUT = 5, SAMPLE = 6;
+	private static final String[] EVENT_NAMES = { "arrivals", "departures", "rejoins", "refreshes", "pings",
+			"timeouts", "samples" };
+	private static final long MILLIS = 1000;
+
+	private double duration;
+	private double session;
+	private double downtime;
+	private double crashes;
+	private double arrivals;
+	private double refreshInterval;
+	private double pingInterval;
+	private long timeout;
+	private double sampleInterval;
+	private int probes;
+
+	private Coordinator coordinator;
+	private NodeRegistry nodes;
+	private TimingWheel wheel;
+	private Random rand;
+	private int m, k;
+	// The epoch of every node changes when it goes offline or online, so that the events of
+	// a previous session are recognized and dropped
+	private int[] epochs;
+	private int[] refreshCursors, pingCursors;
+	private long[] fired;
+	private int online, offline, crashed, arrived;
+	private long lastEvictions, lastRemovals, lastTimeouts;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds a simulation of duration 0 (no churn) with the default parameters
+	 */
+	public ChurnSimulation() {
+		duration = 0;
+		session = 3600;
+		downtime = 1800;
+		crashes = 0.1;
+		arrivals = -1;
+		refreshInterval = 3600;
+		pingInterval = 600;
+		timeout = 1000;
+		sampleInterval = 600;
+		probes = 200;
+	}
+
+	/* Methods */
+
+	/**
+	 * Applies a command line option of the churn simulation, if it is one of them (all the
+	 * times are virtual seconds, apart from the timeout):
+	 * --churn=D      the duration of the simulation, 0 (default) means no churn
+	 * --session=S    the mean time a node stays online (default 3600)
+	 * --downtime=D   the mean time a node stays offline before coming back (default 1800)
+	 * --crash=P      the fraction of the departures that are crashes, the node never comes
+	 *                back (default 0.1)
+	 * --arrivals=R   the new nodes per second (default: the expected rate of the crashes)
+	 * --refresh=R    the time to refresh all the buckets of a node (default 3600)
+	 * --ping=P       the time to ping all the buckets of a node (default 600, 0 disables)
+	 * --timeout=T    the timeout of an RPC in milliseconds (default 1000)
+	 * --sample=S     the interval between the samples (default 600)
+	 * --probes=P     the probe lookups of every sample (default 200, 0 disables)
+	 * @param option the option, in the form "--name=value"
+	 * @return true if the option is one of the churn simulation, false otherwise
+	 */
+	public boolean applyOption(String option) {
+		if (!option.contains("="))
+			return false;
+		String name = option.substring(0, option.indexOf('='));
+		String value = option.substring(option.indexOf('=') + 1);
+		switch (name) {
+		case "--churn":
+			duration = Double.parseDouble(value);
+			break;
+		case "--session":
+			session = positive(name, value);
+			break;
+		case "--downtime":
+			downtime = positive(name, value);
+			break;
+		case "--crash":
+			crashes = Double.parseDouble(value);
+			if (crashes < 0 || crashes > 1)
+				throw new IllegalArgumentException("the crash fraction must be in [0, 1]");
+			break;
+		case "--arrivals":
+			arrivals = Double.parseDouble(value);
+			break;
+		case "--refresh":
+			refreshInterval = positive(name, value);
+			break;
+		case "--ping":
+			pingInterval = Double.parseDouble(value);
+			break;
+		case "--timeout":
+			timeout = Long.parseLong(value);
+			break;
+		case "--sample":
+			sampleInterval = positive(name, value);
+			break;
+		case "--probes":
+			probes = Integer.parseInt(value);
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the duration of the simulation
+	 * @return the duration in virtual seconds, 0 if there is no churn
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Runs the simulation on the network of the coordinator, which must be built (and not in
+	 * actor mode), and displays a line every sample interval and the totals at the end
+	 * @param coordinator the coordinator of the network
+	 */
+	public void run(Coordinator coordinator) {
+		this.coordinator = coordinator;
+		nodes = coordinator.getRegistry();
+		m = (int) coordinator.getM();
+		k = (int) coordinator.getK();
+		rand = new Random(coordinator.getSeed());
+		wheel = new TimingWheel();
+		int n = nodes.size();
+		epochs = new int[n];
+		refreshCursors = new int[n];
+		pingCursors = new int[n];
+		fired = new long[EVENT_NAMES.length];
+		online = n;
+		double arrivalRate = (arrivals >= 0) ? arrivals : crashes * n / session;
+		LookupMetrics metrics = coordinator.getMetrics();
+		lastEvictions = metrics.getEvictions();
+		lastRemovals = metrics.getRemovals();
+		lastTimeouts = metrics.getTimeouts();
+
+		// The maintenance of the nodes starts at random points of its period
+		for (int h = 0; h < n; h++)
+			startSession(h, true);
+		if (arrivalRate > 0)
+			wheel.schedule(exponential(1 / arrivalRate), ARRIVAL, 0, 0);
+		wheel.schedule(Math.round(sampleInterval * MILLIS), SAMPLE, 0, 0);
+
+		System.out.println("=========== Churn ===========");
+		System.out.println(n + " nodes, mean session " + session + " s, mean downtime " + downtime + " s, "
+				+ Math.round(crashes * 100) + "% crashes, " + String.format(Locale.ROOT, "%.4f", arrivalRate)
+				+ " arrivals per second, refresh every " + refreshInterval + " s, ping every " + pingInterval
+				+ " s, timeout " + timeout + " ms");
+		System.out.printf("%8s %8s %8s %8s %8s %10s %7s %9s %9s %9s %7s %7s %7s%n", "time(s)", "online", "offline",
+				"crashed", "arrived", "edges", "stale%", "evictions", "removals", "timeouts", "exact%", "recall%",
+				"short%");
+		long startTime = System.nanoTime();
+		long events = wheel.run(Math.round(duration * MILLIS), this::handle);
+		double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+
+		StringBuilder counts = new StringBuilder();
+		for (int type = 0; type < EVENT_NAMES.length; type++)
+			counts.append(type == 0 ? "" : ", ").append(EVENT_NAMES[type]).append(" = ").append(fired[type]);
+		System.out.println(events + " events in " + Math.round(seconds * 1000) / 1000.0 + " seconds ("
+				+ (long) (events / seconds) + " events per second, " + Math.round(duration / seconds)
+				+ " virtual seconds per second)");
+		System.out.println("Events: " + counts);
+		System.out.println("=========== End Churn ===========");
+	}
+
+	/**
+	 * Handles an event of the wheel, the arguments are the handle of the node and its epoch
+	 * (for TIMEOUT, the handle of the node pinging and the handle of the node pinged)
+	 */
+	private void handle(int type, int a, int b) {
+		fired[type]++;
+		switch (type) {
+		case ARRIVAL:
+			arrive();
+			break;
+		case DEPARTURE:
+			if (epochs[a] == b)
+				depart(a);
+			break;
+		case REJOIN:
+			if (epochs[a] == b)
+				rejoin(a);
+			break;
+		case REFRESH:
+			if (epochs[a] == b)
+				refresh(a);
+			break;
+		case PING:
+			if (epochs[a] == b)
+				ping(a);
+			break;
+		case TIMEOUT:
+			// The node is removed only if it is still offline
+			Node pinged = nodes.getNode(b);
+			if (!pinged.isAlive())
+				nodes.get(a).removeContact(pinged);
+			break;
+		case SAMPLE:
+			sample();
+			wheel.schedule(wheel.now() + Math.round(sampleInterval * MILLIS), SAMPLE, 0, 0);
+			break;
+		default:
+			throw new IllegalStateException("unknown event type " + type);
+		}
+	}
+
+	/**
+	 * Schedules the departure and the maintenance of a node that is online
+	 * @param handle the node
+	 * @param spread true to start the maintenance at a random point of its period
+	 */
+	private void startSession(int handle, boolean spread) {
+		int epoch = epochs[handle];
+		long now = wheel.now();
+		wheel.schedule(now + exponential(session), DEPARTURE, handle, epoch);
+		long refreshStep = refreshStep();
+		wheel.schedule(now + (spread ? (long) (rand.nextDouble() * refreshStep) : refreshStep), REFRESH, handle, epoch);
+		if (pingInterval > 0) {
+			long pingStep = pingStep();
+			wheel.schedule(now + (spread ? (long) (rand.nextDouble() * pingStep) : pingStep), PING, handle, epoch);
+		}
+	}
+
+	/**
+	 * A new node joins the network, as in the construction
+	 */
+	private void arrive() {
+		NodeDescriptor node = coordinator.addNode(new Random(rand.nextLong()));
+		int handle = node.getNode().getHandle();
+		if (handle >= epochs.length) {
+			int capacity = Math.max(handle + 1, epochs.length * 2);
+			epochs = Arrays.copyOf(epochs, capacity);
+			refreshCursors = Arrays.copyOf(refreshCursors, capacity);
+			pingCursors = Arrays.copyOf(pingCursors, capacity);
+		}
+		online++;
+		arrived++;
+		startSession(handle, false);
+		double arrivalRate = (arrivals >= 0) ? arrivals : crashes * nodes.size() / session;
+		if (arrivalRate > 0)
+			wheel.schedule(wheel.now() + exponential(1 / arrivalRate), ARRIVAL, 0, 0);
+	}
+
+	/**
+	 * A node goes offline, it either leaves (and comes back after its downtime) or crashes
+	 */
+	private void depart(int handle) {
+		nodes.getNode(handle).setAlive(false);
+		int epoch = ++epochs[handle];
+		online--;
+		if (rand.nextDouble() < crashes) {
+			crashed++;
+		} else {
+			offline++;
+			wheel.schedule(wheel.now() + exponential(downtime), REJOIN, handle, epoch);
+		}
+	}
+
+	/**
+	 * A node comes back online with its old routing table, and looks up its own id through
+	 * a bootstrap node online, as in a join
+	 */
+	private void rejoin(int handle) {
+		NodeDescriptor node = nodes.get(handle);
+		node.getNode().setAlive(true);
+		++epochs[handle];
+		offline--;
+		online++;
+		NodeDescriptor bootstrap = coordinator.randomJoined(rand);
+		if (bootstrap != node && bootstrap.getNode().isAlive())
+			node.joinNetwork(bootstrap);
+		else
+			node.startFindNode(node.getNodeId());
+		startSession(handle, false);
+	}
+
+	/**
+	 * Refreshes the next bucket of the node, with a lookup of a random id in it
+	 */
+	private void refresh(int handle) {
+		NodeDescriptor node = nodes.get(handle);
+		int index = m - 1 - (refreshCursors[handle]++ % activeBuckets());
+		node.startFindNode(Utils.generateIDInRightBucket(index, node.getNodeId(), rand));
+		wheel.schedule(wheel.now() + refreshStep(), REFRESH, handle, epochs[handle]);
+	}
+
+	/**
+	 * Pings the least recently seen node of the next bucket of the node, if it does not
+	 * respond it is removed when the timeout expires
+	 */
+	private void ping(int handle) {
+		int index = m - 1 - (pingCursors[handle]++ % activeBuckets());
+		int silent = nodes.get(handle).pingLeastRecent(index);
+		if (silent != -1)
+			wheel.schedule(wheel.now() + timeout, TIMEOUT, handle, silent);
+		wheel.schedule(wheel.now() + pingStep(), PING, handle, epochs[handle]);
+	}
+
+	/**
+	 * Prints a line with the state of the network and the accuracy of the probe lookups
+	 */
+	private void sample() {
+		int n = nodes.size();
+		int[] alive = new int[n];
+		int count = 0;
+		long edges = 0, stale = 0;
+		for (int h = 0; h < n; h++) {
+			int degree = nodes.getInDegree(h);
+			edges += degree;
+			if (nodes.getNode(h).isAlive())
+				alive[count++] = h;
+			else
+				stale += degree;
+		}
+
+		double exact = Double.NaN, recall = Double.NaN, shortfall = Double.NaN;
+		if (probes > 0 && count > 0) {
+			XorIndex index = new XorIndex(nodes, alive, count);
+			LookupMetrics probeMetrics = new LookupMetrics();
+			int[] truth = new int[k];
+			long exactCount = 0, recalled = 0, shortCount = 0;
+			for (int i = 0; i < probes; i++) {
+				NodeDescriptor origin = nodes.get(alive[rand.nextInt(count)]);
+				NodeId target = new NodeId(rand.nextLong(), rand.nextLong(), rand.nextLong()).mask(m);
+				int closest = index.closest(target, truth);
+				int found = 0;
+				List<Node> result = origin.nodeLookup(target, probeMetrics);
+				if (result.size() < Math.min(k, count))
+					shortCount++;
+				for (Node node : result) {
+					for (int c = 0; c < closest; c++) {
+						if (truth[c] == node.getHandle()) {
+							found++;
+							break;
+						}
+					}
+				}
+				recalled += found * 1000000L / Math.max(1, closest);
+				if (found == closest)
+					exactCount++;
+			}
+			exact = 100.0 * exactCount / probes;
+			recall = recalled / 10000.0 / probes;
+			shortfall = 100.0 * shortCount / probes;
+		}
+
+		LookupMetrics metrics = coordinator.getMetrics();
+		long evictions = metrics.getEvictions(), removals = metrics.getRemovals(), timeouts = metrics.getTimeouts();
+		System.out.printf(Locale.ROOT, "%8d %8d %8d %8d %8d %10d %7.2f %9d %9d %9d %7.2f %7.2f %7.2f%n",
+				wheel.now() / MILLIS, online, offline, crashed, arrived, edges, 100.0 * stale / Math.max(1, edges),
+				evictions - lastEvictions, removals - lastRemovals, timeouts - lastTimeouts, exact, recall, shortfall);
+		lastEvictions = evictions;
+		lastRemovals = removals;
+		lastTimeouts = timeouts;
+	}
+
+	/**
+	 * Returns the number of buckets refreshed and pinged, the ones not empty in a network
+	 * of this size: the bucket with index m - 1 - j holds about n / 2^(j + 1) nodes
+	 */
+	private int activeBuckets() {
+		return Math.min(m, 66 - Long.numberOfLeadingZeros(nodes.size()));
+	}
+
+	/**
+	 * Returns the interval between two refreshes of a node, in milliseconds
+	 */
+	private long refreshStep() {
+		return Math.max(1, Math.round(refreshInterval * MILLIS / activeBuckets()));
+	}
+
+	/**
+	 * Returns the interval between two pings of a node, in milliseconds
+	 */
+	private long pingStep() {
+		return Math.max(1, Math.round(pingInterval * MILLIS / activeBuckets()));
+	}
+
+	/**
+	 * Returns a delay drawn from the exponential distribution, in milliseconds
+	 * @param mean the mean in seconds
+	 */
+	private long exponential(double mean) {
+		return Math.round(-mean * MILLIS * Math.log(1 - rand.nextDouble()));
+	}
+
+	/**
+	 * Parses the value of an option that must be positive
+	 */
+	private static double positive(String name, String value) {
+		double parsed = Double.parseDouble(value);
+		if (parsed <= 0)
+			throw new IllegalArgumentException(name + " must be positive");
+		return parsed;
+	}
+
+}
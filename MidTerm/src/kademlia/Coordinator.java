@@ -0,0 +1,1094 @@
+package kademlia;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that models the coordinator. 
+ * This entity is provided with a global view of the present nodes in the network
+ * (they are stored in a NodeRegistry, which gives each of them a dense integer handle)
+ * and is the entity that forces the join of the n nodes.
+ * The joins can be executed one after the other (the default), or in parallel by a pool
+ * of worker threads, with many joins (and their bucket refresh lookups) in flight at once.
+ * The identifiers of the nodes and the random choices of every join are drawn from
+ * separate streams derived from the seed, so that both modes join the same nodes.
+ * In actor mode every node is an actor (see ActorRuntime), and many joins are in flight
+ * at once, each one sending its lookup requests concurrently.
+ * The network can be saved to a checkpoint (see Checkpoint) and restored later, also
+ * to resume its construction up to a bigger number of nodes
+ * 
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Coordinator {
+	
+	/* Public and Static Fields */
+	// The default number of findNode RPCs a lookup sends in parallel
+	public static final int DEFAULT_ALPHA = 3;
+	// The number of independent HyperANF runs averaged by the approximate analytics
+	public static final int ANF_RUNS = 3;
+
+	/* Private Fields */
+
+	// The draws of a bootstrap node before giving up looking for an online one
+	private static final int MAX_BOOTSTRAP_DRAWS = 64;
+
+	private NodeRegistry nodes;
+	private Random idRand, joinRand;
+	private long seed;
+	private long n, m, k;
+	private boolean treeRoutingTables;
+	private int threads;
+	private boolean verbose;
+	private int actorConcurrency;
+	private int alpha;
+	private ActorRuntime actorRuntime;
+	private int udpSelectors;
+	private UdpTransport transport;
+	private String dumpFormat;
+	private boolean analytics;
+	private int anfLog2m;
+	private int snapshotInterval;
+	private Path snapshotsPath;
+	private TopologySnapshots snapshots;
+	private Path checkpointPath, restorePath;
+	private String idHash, idDistribution;
+	private IdGenerator idGenerator;
+	// The nodes generated in a batch by the IdGenerator, starting from the index generatedFrom
+	private Node[] generated;
+	private int generatedFrom;
+	
+	// The handles of the nodes whose join is completed, the only valid bootstraps
+	private int[] joined;
+	private int joinedCount;
+	
+	/* Stats fields */
+	private int numberOfCollisions;
+	private long millisElapsed;
+	private long buildMillis;
+	private long dumpMillis;
+	private long dumpBytes;
+	private long checkpointMillis, checkpointBytes;
+	private long restoreMillis;
+	private long idMillis;
+	private LongAdder rpcs;
+	private LookupMetrics metrics;
+
+	/* Constructors */
+	
+	/**
+	 * Constructor of the coordinator. It gets in input the parameters of the P2P network
+	 * @param n number of nodes join
+	 * @param m number of bits in the identifier
+	 * @param k number of entries per bucket in the routing table
+	 */
+	public Coordinator(long n, long m, long k) {
+		this.n = n;
+		this.m = m;
+		this.k = k;
+		numberOfCollisions = 0;
+		treeRoutingTables = false;
+		threads = 1;
+		verbose = true;
+		actorConcurrency = 0;
+		alpha = DEFAULT_ALPHA;
+		dumpFormat = "csv";
+		udpSelectors = 0;
+		idHash = null;
+		idDistribution = "uniform";
+		analytics = false;
+		rpcs = new LongAdder();
+		metrics = new LookupMetrics();
+		anfLog2m = 0;
+		snapshotInterval = 0;
+		snapshotsPath = Paths.get("networkSnapshots.jsonl");
+		setSeed(new Random().nextLong());
+	}
+	
+	/* Methods */
+
+	/**
+	 * This method corresponds to the first phase (phase 1, initialization) in the
+	 * midTerm text. It generates a first node with an empty routing table
+	 */
+	private void initialize() {
+		nodes = new NodeRegistry((int) n);
+		joined = new int[(int) n];
+		joinedCount = 0;
+		rpcs.reset();
+		metrics = new LookupMetrics();
+		NodeDescriptor first = registerNewNode(1);
+		markJoined(first);
+	}
+	
+	/**
+	 * This method generates a new node with identifier in the legal range 
+	 * of allowed identifiers (different from the ones already generated), and
+	 * registers it. This is always executed by the coordinator thread
+	 * 
+	 * @param j this index is only for displaying purposes, it is the order in which it has 
+	 * been generated (1 is the first node, 2 the second... up to n)
+	 * @return the descriptor of the new node
+	 */
+	private NodeDescriptor registerNewNode(int j) {
+		// I generate a random id (different from the previous ones)
+
+		Node node = nextNode(j - 1);
+		while (nodes.contains(node.getId())) {
+			// I got a collision in the nodeId, I simply generate a new one
+			numberOfCollisions++;
+			node = (idGenerator != null) ? idGenerator.next(idRand) : Utils.generateNewNode(m, idRand);
+		}
+		if (verbose)
+			System.out.println("Generating node number " + j + " out of " + n + " with ID " + node.getId());
+		
+		NodeDescriptor newNode = new NodeDescriptor(node, m, k, this, j);
+		nodes.register(newNode);
+		return newNode;
+	}
+	
+	/**
+	 * Returns the node with the given index, from the batch of the IdGenerator if it is
+	 * there, otherwise a new one
+	 * @param index the index of the node (0 is the first one)
+	 * @return the node, its identifier can be equal to the one of a node already registered
+	 */
+	private Node nextNode(int index) {
+		int position = index - generatedFrom;
+		if (generated != null && position >= 0 && position < generated.length) {
+			Node node = generated[position];
+			// The registry keeps the node, the batch does not need to
+			generated[position] = null;
+			return node;
+		}
+		return (idGenerator != null) ? idGenerator.next(idRand) : Utils.generateNewNode(m, idRand);
+	}
+	
+	/**
+	 * Generates in a batch, with the IdGenerator (if it is enabled), the nodes from the given
+	 * index up to n
+	 * @param from the index of the first node to generate
+	 */
+	private void generateIds(int from) {
+		generated = null;
+		idGenerator = null;
+		if (idHash == null)
+			return;
+		long startTime = System.currentTimeMillis();
+		idGenerator = new IdGenerator((int) m, idHash, idDistribution, seed);
+		generated = idGenerator.generate(from, (int) Math.max(0, n - from), threads);
+		generatedFrom = from;
+		numberOfCollisions += idGenerator.getDuplicates();
+		idMillis = System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * This method chooses at random a bootstrap node between the ones already present 
+	 * in the network and simulates the join for given node with given bootstrap. After that,
+	 * it tells the new node to issue a given number of findNode operations targeting random
+	 * IDs (one for every k-bucket of his routing table) in order to populate some entries 
+	 * in the routing table (and advertise the new node).
+	 * 
+	 * @param newNode the node joining the network
+	 * @param rand the random source of this join
+	 */
+	private void joinNewNode(NodeDescriptor newNode, Random rand) {
+		// I find a random bootstrap node starting from the present ones
+		NodeDescriptor bootstrap = randomJoined(rand);
+		
+		// I now join newId with given bootstrap
+		newNode.joinNetwork(bootstrap);
+		for(int i = 0; i < m; i++) {
+			//  I generate, for each i in [0, m), an id fitting k-bucket i
+			NodeId randomId = Utils.generateIDInRightBucket(i, newNode.getNodeId(), rand);
+			// And I tell the new node to look for this random ID
+			newNode.startFindNode(randomId);
+		}
+		markJoined(newNode);
+	}
+	
+	/**
+	 * Records that the join of the node is completed, so that it can act as a bootstrap
+	 * @param node the node that joined
+	 */
+	private synchronized void markJoined(NodeDescriptor node) {
+		// The nodes added by the churn simulation can go beyond n
+		if (joinedCount == joined.length)
+			joined = Arrays.copyOf(joined, Math.max(1, joinedCount * 2));
+		joined[joinedCount++] = node.getNode().getHandle();
+		if (snapshots != null && joinedCount % snapshotInterval == 0)
+			snapshots.capture(joinedCount, rpcs.sum());
+	}
+	
+	/**
+	 * Returns a random node among the ones whose join is completed and that are online
+	 * (up to a bounded number of draws, then the last node drawn is returned anyway)
+	 * @param rand the random source
+	 * @return the chosen node
+	 */
+	public synchronized NodeDescriptor randomJoined(Random rand) {
+		NodeDescriptor node = nodes.get(joined[rand.nextInt(joinedCount)]);
+		for (int draws = 1; draws < MAX_BOOTSTRAP_DRAWS && !node.getNode().isAlive(); draws++)
+			node = nodes.get(joined[rand.nextInt(joinedCount)]);
+		return node;
+	}
+
+	/**
+	 * Generates a new node and joins it to the network built, as the joins of buildNetwork.
+	 * This is used by the churn simulation for the nodes arriving after the construction
+	 * @param rand the random source of the join
+	 * @return the descriptor of the new node
+	 */
+	public NodeDescriptor addNode(Random rand) {
+		NodeDescriptor node = registerNewNode(nodes.size() + 1);
+		joinNewNode(node, rand);
+		return node;
+	}
+	
+	/**
+	 * Restores the network from the checkpoint, instead of generating the first node
+	 * @param path the file of the checkpoint
+	 * @throws IOException if the checkpoint cannot be read
+	 */
+	private void restore(Path path) throws IOException {
+		long startTime = System.currentTimeMillis();
+		Checkpoint checkpoint = Checkpoint.read(path);
+		if (checkpoint.getM() != m || checkpoint.getK() != k)
+			throw new IllegalArgumentException("the checkpoint has m = " + checkpoint.getM() + " and k = " + checkpoint.getK());
+		if (checkpoint.getNodes() > n)
+			throw new IllegalArgumentException("the checkpoint has " + checkpoint.getNodes() + " nodes, more than n");
+		treeRoutingTables = checkpoint.isTree();
+		seed = checkpoint.getSeed();
+		idRand = checkpoint.getIdRandom();
+		joinRand = checkpoint.getJoinRandom();
+		numberOfCollisions = checkpoint.getCollisions();
+		rpcs.reset();
+		rpcs.add(checkpoint.getRpcs());
+		metrics = checkpoint.getMetrics();
+		nodes = new NodeRegistry((int) n);
+		joined = Arrays.copyOf(checkpoint.getJoined(), (int) n);
+		joinedCount = checkpoint.getJoined().length;
+		checkpoint.restoreNodes(path, this, threads);
+		buildMillis = checkpoint.getBuildMillis();
+		restoreMillis = System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * This method builds the network (phases 1 and 2 of the midTerm text), executing
+	 * the joins sequentially or in parallel according to the number of threads. If a
+	 * checkpoint is restored, only the joins of the nodes missing to reach n are executed
+	 */
+	public void buildNetwork() {
+		long previousMillis = 0;
+		if (restorePath != null) {
+			try {
+				restore(restorePath);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot restore the checkpoint " + restorePath, e);
+			}
+			previousMillis = buildMillis;
+		}
+		generateIds((restorePath != null) ? nodes.size() : 0);
+		if (restorePath == null)
+			initialize(); // This generates one node
+		long startTime = System.currentTimeMillis();
+		// The nodes already in the network, the joins start from the next one
+		int first = nodes.size();
+		
+		openSnapshots();
+		if (udpSelectors > 0) {
+			if (actorConcurrency > 0)
+				throw new IllegalStateException("the UDP transport is not available in actor mode");
+			closeTransport();
+			try {
+				transport = new UdpTransport(this, udpSelectors);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot start the UDP transport", e);
+			}
+		}
+		if (actorConcurrency > 0) {
+			// The joins are driven by virtual threads too, if available
+			closeActorRuntime();
+			actorRuntime = new ActorRuntime(this, (int) n);
+			ExecutorService pool = ActorRuntime.newVirtualThreadExecutor();
+			if (pool == null)
+				pool = Executors.newCachedThreadPool();
+			buildNetworkInParallel(pool, actorConcurrency, first);
+		} else if (threads <= 1) {
+			for (int i = first - 1; i < n - 1; i++) 
+				joinNewNode(registerNewNode(i + 2), new Random(joinRand.nextLong()));
+		} else {
+			buildNetworkInParallel(Executors.newFixedThreadPool(threads), threads * 4, first);
+		}
+		
+		buildMillis = previousMillis + System.currentTimeMillis() - startTime;
+		closeSnapshots();
+	}
+	
+	/**
+	 * Opens the file of the snapshots, if the snapshots are enabled
+	 */
+	private void openSnapshots() {
+		snapshots = null;
+		if (snapshotInterval <= 0)
+			return;
+		try {
+			snapshots = new TopologySnapshots(nodes, metrics, (int) m, snapshotsPath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Takes the snapshot of the complete network (if the last join did not take it already),
+	 * and waits for all the snapshots to be written
+	 */
+	private void closeSnapshots() {
+		if (snapshots == null)
+			return;
+		if (joinedCount % snapshotInterval != 0)
+			snapshots.capture(joinedCount, rpcs.sum());
+		try {
+			snapshots.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * This method executes the n - 1 joins in a pool of worker threads. Nodes are generated 
+	 * and registered in order by the coordinator thread (so they are the same of the 
+	 * sequential mode), then every join is handed to the pool, and its bootstrap is chosen
+	 * among the nodes whose join is completed when it starts. At most maxPending joins
+	 * are running or waiting in the queue at the same time
+	 * @param pool the pool executing the joins, it is shut down at the end
+	 * @param maxPending the maximum number of joins handed to the pool and not completed
+	 * @param first the number of nodes already in the network
+	 */
+	private void buildNetworkInParallel(ExecutorService pool, int maxPending, int first) {
+		Semaphore pending = new Semaphore(maxPending);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (int i = first - 1; i < n - 1 && failure.get() == null; i++) {
+				NodeDescriptor newNode = registerNewNode(i + 2);
+				long joinSeed = joinRand.nextLong();
+				pending.acquire();
+				pool.execute(() -> {
+					try {
+						joinNewNode(newNode, new Random(joinSeed));
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						pending.release();
+					}
+				});
+			}
+			// I wait for all the joins to complete
+			pending.acquire(maxPending);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while building the network", e);
+		} finally {
+			pool.shutdown();
+		}
+		if (failure.get() != null)
+			throw new IllegalStateException("a join failed", failure.get());
+	}
+	
+	/**
+	 * This method simply makes the coordinator create the whole network, dump the
+	 * network content to a file (see NetworkDump) and display some stats about the network
+	 */
+	public void createNetwork() {
+		
+		// I compute the time needed to build the network
+		long startTime = System.currentTimeMillis();
+		
+		buildNetwork();
+		
+		// I have generated the total number of n nodes
+		
+		// I now have to dump the network content in the requested format
+		dumpNetwork();
+		if (checkpointPath != null)
+			writeCheckpoint(checkpointPath);
+		
+		millisElapsed = System.currentTimeMillis() - startTime;
+		// I now display some stats
+		dumpStatistics();
+
+	}
+	
+	/**
+	 * Dumps the network to networkDump.csv or networkDump.bin, according to the dump format
+	 */
+	private void dumpNetwork() {
+		long startTime = System.currentTimeMillis();
+		NetworkDump dump = new NetworkDump(nodes, (int) m, threads);
+		try {
+			switch (dumpFormat) {
+			case "csv":
+				dump.writeCSV(Paths.get("networkDump.csv"));
+				dumpBytes = Paths.get("networkDump.csv").toFile().length();
+				break;
+			case "binary":
+				dumpBytes = dump.writeBinary(Paths.get("networkDump.bin"));
+				break;
+			default:
+				dumpBytes = 0;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		dumpMillis = System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * Writes the checkpoint of the network, from which it can be restored later
+	 * @param path the file of the checkpoint
+	 */
+	public void writeCheckpoint(Path path) {
+		long startTime = System.currentTimeMillis();
+		Checkpoint checkpoint = new Checkpoint((int) m, (int) k, treeRoutingTables, seed, numberOfCollisions, 
+				buildMillis, rpcs.sum(), Arrays.copyOf(joined, joinedCount), idRand, joinRand, metrics);
+		try {
+			checkpointBytes = checkpoint.write(path, nodes, threads);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		checkpointMillis = System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * Chooses the file where createNetwork writes the checkpoint of the network
+	 * @param path the file, null (default) to not write it
+	 */
+	public void setCheckpoint(Path path) {
+		checkpointPath = path;
+	}
+	
+	/**
+	 * Chooses the checkpoint from which buildNetwork restores the network, instead of
+	 * building it from scratch. The nodes, the kind of routing tables, the seed and the
+	 * statistics are the ones of the checkpoint, and if n is bigger than the number of
+	 * nodes in the checkpoint the construction is resumed, joining the missing nodes
+	 * @param path the file of the checkpoint, null (default) to build the network from scratch
+	 */
+	public void setRestore(Path path) {
+		restorePath = path;
+	}
+	
+	/**
+	 * Chooses the format of the dump written by createNetwork
+	 * @param format "csv" (default), "binary" for the CSR format of NetworkDump, or "none"
+	 */
+	public void setDumpFormat(String format) {
+		if (!format.equals("csv") && !format.equals("binary") && !format.equals("none"))
+			throw new IllegalArgumentException("unknown dump format " + format);
+		dumpFormat = format;
+	}
+	
+	/**
+	 * Enables the graph analytics (degree distributions, clustering, diameter and average
+	 * path length) at the end of the statistics
+	 * @param analytics true to compute the analytics
+	 */
+	public void setAnalytics(boolean analytics) {
+		this.analytics = analytics;
+	}
+	
+	/**
+	 * Enables the approximate analytics (HyperANF), for networks too big for the exact ones
+	 * @param log2m the logarithm of the number of registers per counter, 0 (default) disables them
+	 */
+	public void setApproximateAnalytics(int log2m) {
+		anfLog2m = log2m;
+	}
+	
+	/**
+	 * Enables the snapshots of the topology taken while the network is built, written to
+	 * networkSnapshots.jsonl unless setSnapshotsPath chooses another file (see TopologySnapshots)
+	 * @param interval the number of joins between two snapshots, 0 (default) disables them
+	 */
+	public void setSnapshots(int interval) {
+		snapshotInterval = interval;
+	}
+	
+	/**
+	 * Chooses the file where the snapshots of the topology are written, so that networks
+	 * built at the same time (as in a Sweep) do not write to the same one
+	 * @param path the file, networkSnapshots.jsonl by default
+	 */
+	public void setSnapshotsPath(Path path) {
+		snapshotsPath = path;
+	}
+	
+	/**
+	 * Returns the NodeDescriptor associated the requested id, necessary to make the RPC calls
+	 * (NodeDescriptor instance)
+	 * @param targetId the id to be returned
+	 * @return the RPC instance, null if not present
+	 */
+	public NodeDescriptor askRPCInstance(NodeId targetId) {
+		int handle = nodes.find(targetId);
+		return (handle == -1)? null : nodes.get(handle);
+	}
+	
+	/**
+	 * Returns the NodeDescriptor associated the requested handle, in constant time.
+	 * This is the method used to make the RPC calls
+	 * @param handle the handle of the node, as given by the registry
+	 * @return the RPC instance
+	 */
+	public NodeDescriptor askRPCInstance(int handle) {
+		rpcs.increment();
+		return nodes.get(handle);
+	}
+	
+	/**
+	 * Sets the seed of the simulation, the same seed generates the same nodes in the
+	 * same order both in sequential and in parallel mode
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		Random root = new Random(seed);
+		idRand = new Random(root.nextLong());
+		joinRand = new Random(root.nextLong());
+	}
+	
+	/**
+	 * Returns the seed of the simulation
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * Sets the hash function of the identifiers and enables the IdGenerator, which
+	 * generates all the nodes in a batch, in parallel, before the joins
+	 * @param hash sha1 or splitmix (see IdGenerator)
+	 */
+	public void setIdHash(String hash) {
+		IdGenerator.validate((int) m, hash, idDistribution);
+		idHash = hash;
+	}
+	
+	/**
+	 * Sets the distribution of the identifiers and enables the IdGenerator (with the sha1
+	 * hash, unless another one is set)
+	 * @param distribution uniform or clustered:C:B[:S] (see IdGenerator)
+	 */
+	public void setIdDistribution(String distribution) {
+		if (idHash == null)
+			idHash = "sha1";
+		IdGenerator.validate((int) m, idHash, distribution);
+		idDistribution = distribution;
+	}
+	
+	/**
+	 * Sets the number of threads used to build the network, 1 (default) means the 
+	 * sequential build, a number lower than 1 means one thread per available core
+	 * @param threads the number of worker threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+	
+	/**
+	 * Returns the number of nodes of the network
+	 * @return n
+	 */
+	public long getN() {
+		return n;
+	}
+	
+	/**
+	 * Returns the number of bits of the identifiers
+	 * @return m
+	 */
+	public long getM() {
+		return m;
+	}
+	
+	/**
+	 * Returns the number of entries per bucket in the routing tables
+	 * @return k
+	 */
+	public long getK() {
+		return k;
+	}
+	
+	/**
+	 * Returns the number of threads used to build the network
+	 * @return the number of worker threads (1 means sequential)
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * Sets the number of findNode RPCs that a lookup sends in parallel
+	 * @param alpha the parallelism of the lookups, at least 1
+	 */
+	public void setAlpha(int alpha) {
+		if (alpha < 1)
+			throw new IllegalArgumentException("alpha must be at least 1");
+		this.alpha = alpha;
+	}
+	
+	/**
+	 * Returns the number of findNode RPCs that a lookup sends in parallel
+	 * @return alpha
+	 */
+	public int getAlpha() {
+		return alpha;
+	}
+	
+	/**
+	 * Enables the actor mode, where every node is an actor and the given number of joins
+	 * are in flight at the same time
+	 * @param concurrency the number of concurrent joins, 0 (default) disables the actor mode
+	 */
+	public void setActors(int concurrency) {
+		actorConcurrency = concurrency;
+	}
+	
+	/**
+	 * Sets the UDP transport: the RPCs between the nodes are datagrams on the loopback
+	 * interface, served by the given number of selector threads
+	 * @param selectors the selector threads, 0 (default) for method calls
+	 */
+	public void setTransport(int selectors) {
+		udpSelectors = selectors;
+	}
+	
+	/**
+	 * Returns the UDP transport of the nodes
+	 * @return the transport, null if the RPCs are method calls
+	 */
+	public UdpTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Closes the UDP transport, if it was started, and goes back to method calls
+	 */
+	private void closeTransport() {
+		if (transport != null)
+			transport.close();
+		transport = null;
+	}
+	
+	/**
+	 * Stops the threads serving the messages between actors, if the actor mode started them
+	 */
+	private void closeActorRuntime() {
+		if (actorRuntime != null)
+			actorRuntime.shutdown();
+		actorRuntime = null;
+	}
+	
+	/**
+	 * Releases the threads of the network: closes the UDP transport and stops the actor
+	 * runtime. The network can no longer run lookups in actor mode, nor over UDP
+	 */
+	public void close() {
+		closeTransport();
+		closeActorRuntime();
+	}
+	
+	/**
+	 * Returns the runtime delivering the messages between actors
+	 * @return the actor runtime, null if the actor mode is not enabled
+	 */
+	public ActorRuntime getActorRuntime() {
+		return actorRuntime;
+	}
+	
+	/**
+	 * Enables or disables the line printed for every generated node
+	 * @param verbose false to avoid printing a line per node
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+	
+	/**
+	 * Returns the milliseconds needed to build the network (without dumping it). For a
+	 * restored network, this includes the time spent to build it before the checkpoint
+	 * @return the build time
+	 */
+	public long getBuildMillis() {
+		return buildMillis;
+	}
+	
+	/**
+	 * Returns the number of RPCs sent by the nodes (through askRPCInstance) in the last build
+	 * @return the number of RPCs
+	 */
+	public long getRpcCount() {
+		return rpcs.sum();
+	}
+	
+	/**
+	 * Returns the total number of edges in the routing tables
+	 * @return the number of edges
+	 */
+	public long getTotalEdges() {
+		long totEdges = 0;
+		for(int h = 0; h < nodes.size(); h++)
+			totEdges += nodes.get(h).exposeNumberOfEdges();
+		return totEdges;
+	}
+	
+	/**
+	 * Returns the average recursive depth reached by the lookups
+	 * @return the average depth
+	 */
+	public double getAverageDepth() {
+		return metrics.getHistogram(LookupMetrics.DEPTH).getMean();
+	}
+	
+	/**
+	 * Returns the metrics of the lookups and of the routing tables of the last build
+	 * @return the metrics
+	 */
+	public LookupMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Returns the maximum in degree of a node
+	 * @return the maximum in degree
+	 */
+	public long getMaxInDegree() {
+		int[] highest = nodes.highestInDegrees(1);
+		return (highest.length == 0) ? 0 : nodes.getInDegree(highest[0]);
+	}
+	
+	/**
+	 * Chooses the kind of routing tables of the nodes that will join the network
+	 * @param tree true for lazily split tree routing tables, false (default) for m flat buckets
+	 */
+	public void setTreeRoutingTables(boolean tree) {
+		treeRoutingTables = tree;
+	}
+	
+	/**
+	 * Tells if the nodes use the lazily split tree routing tables
+	 * @return true if the routing tables are trees
+	 */
+	public boolean useTreeRoutingTables() {
+		return treeRoutingTables;
+	}
+	
+	/**
+	 * Getter for the registry of the nodes joined to the network
+	 * @return the registry
+	 */
+	public NodeRegistry getRegistry() {
+		return nodes;
+	}
+	
+	/**
+	 * Estimates the number of nodes falling into every bucket of a routing table: I generate
+	 * 20 identifiers and compute the distance from those nodes and all the ones in the network.
+	 * This way I can compute an average number of expected nodes per bucket
+	 * @param rand the random source of the identifiers
+	 * @return an array where position i contains the expected number of nodes in bucket i
+	 */
+	private double[] estimateBucketSizes(Random rand) {
+		double distances[] = new double[(int) m];
+		for(int i = 0; i < 20; i++) {
+			Node n = Utils.generateNewNode(m, rand);
+			NodeDescriptor newND = new NodeDescriptor(n, m, k, this, -1);
+			for(int h = 0; h < nodes.size(); h++) {
+				long index = newND.exposeBucketIndex(nodes.getId(h));
+				distances[(int) index] +=1;
+			}
+		}
+		for(int i = 0; i < distances.length; i++)
+			distances[i] = (double) distances[i]/20;
+		return distances;
+	}
+	
+	/**
+	 * Estimates the number of edges in the network according to the average distribution
+	 * of nodes in all the buckets
+	 * @param distances the expected number of nodes in every bucket
+	 * @return the estimate of the total number of edges
+	 */
+	private double estimateEdges(double[] distances) {
+		double betterEstimate = 0;
+		for(int i = 0; i < m; i++) {
+			double ithBucket = distances[i];
+			if(ithBucket <= k)
+				betterEstimate += ithBucket;
+			else
+				betterEstimate += k;
+		}
+		// I have now an average estimate for one routing table, I need it for n
+		return betterEstimate * n;
+	}
+	
+	/**
+	 * Computes the theoretical max number of edges in the network (filled routing tables)
+	 * @return the maximum number of edges
+	 */
+	private long maxTheoreticalEdges() {
+		long maxTheoretical = 0;
+		for(int i = 0; i < m; i++) {
+			long pow = (long) Math.pow(2, i);
+			if(Math.pow(2, i) < k)
+				maxTheoretical += pow;	
+			else 
+				maxTheoretical += k;
+		}
+		return maxTheoretical * n;
+	}
+	
+	/**
+	 * Collects the main statistics of the network built by the last buildNetwork, without
+	 * printing them. The expected number of edges is estimated with identifiers drawn from
+	 * a source seeded with the seed of the simulation
+	 * @return the statistics
+	 */
+	public NetworkStatistics getStatistics() {
+		return new NetworkStatistics(m, n, k, seed, numberOfCollisions, buildMillis, rpcs.sum(), getTotalEdges(),
+				(long) estimateEdges(estimateBucketSizes(new Random(seed))), maxTheoreticalEdges(), 
+				metrics.getHistogram(LookupMetrics.DEPTH).getMax(), 
+				getAverageDepth(), getMaxInDegree());
+	}
+	
+	/**
+	 * This method simply displays the various statistics about the network as 
+	 * collected during its lifetime
+	 */
+	private void dumpStatistics() {
+		System.out.println("===========================================================================");
+		// First thing I display is the number of collisions that happened
+		System.out.println("Seed of the simulation = " + seed);
+		System.out.println("Number of collisions with the hash function = " + numberOfCollisions);
+		
+		// I now compute both the total number of edges (stored it totEdges), and the recursive 
+		// lookup depth reached. This means the number of times the lookup loop was executed
+		long totEdges = getTotalEdges();
+		Histogram depths = metrics.getHistogram(LookupMetrics.DEPTH);
+		// I now compute the maximum number of depth reached by the lookup
+		long maxDepth = depths.getMax();
+		System.out.println("Max depth reached is " + maxDepth);
+		
+		// What I now do is display, for each depth reached, the number of times it was reached
+		System.out.println("Recursive depths reached:");
+		for(int i = 1; i <= maxDepth; i++) 
+			System.out.print(i + "->" + depths.getCountAt(i) + "  ");
+		System.out.println();
+		
+		// I now display the average of recursive depth reached
+		double avg = depths.getMean();
+		System.out.println("Average recursive depth: " + Math.floor(avg * 100) / 100);
+			
+		System.out.println("Time needed to build the network " + ((double) millisElapsed / 1000) + " seconds");
+		System.out.println("Number of findNode RPCs = " + rpcs.sum());
+		if (idGenerator != null)
+			System.out.println("Time needed to generate the identifiers (" + idGenerator + ") "
+					+ ((double) idMillis / 1000) + " seconds");
+		if (!dumpFormat.equals("none"))
+			System.out.println("Time needed to dump the network (" + dumpFormat + ", " + dumpBytes + " bytes) " 
+					+ ((double) dumpMillis / 1000) + " seconds");
+		
+		if (restorePath != null)
+			System.out.println("Time needed to restore the checkpoint " + restorePath + " " 
+					+ ((double) restoreMillis / 1000) + " seconds");
+		if (checkpointPath != null)
+			System.out.println("Time needed to write the checkpoint (" + checkpointBytes + " bytes) " 
+					+ ((double) checkpointMillis / 1000) + " seconds");
+		if (snapshots != null)
+			System.out.printf(Locale.ROOT, "%d snapshots written to %s, capturing them took %.3f seconds%n",
+					snapshots.getWritten(), snapshotsPath, snapshots.getCaptureMillis() / 1000);
+		
+		if (transport != null)
+			System.out.println(transport.describe(Math.max(1, buildMillis) / 1000.0));
+		
+		if (actorRuntime != null) {
+			// In actor mode I display the throughput of the messages and of the lookups
+			double seconds = Math.max(1, buildMillis) / 1000.0;
+			System.out.println("Actor mode with " + actorConcurrency + " concurrent joins, mailboxes served by " 
+					+ (actorRuntime.usesVirtualThreads() ? "virtual threads" : "a work stealing pool"));
+			System.out.println("Messages served = " + actorRuntime.getMessages() + " (" 
+					+ (long) (actorRuntime.getMessages() / seconds) + " per second)");
+			System.out.println("Lookups completed = " + depths.getCount() + " (" 
+					+ (long) (depths.getCount() / seconds) + " per second)");
+		}
+		
+		// What I'm going to do now is estimate the number of edges built in this way
+		double distances[] = estimateBucketSizes(idRand);
+		System.out.println("Theoretical maximum number of edges = " + maxTheoreticalEdges());
+		System.out.println("Expected number of edges is around " + (long) estimateEdges(distances));
+		System.out.println("Number of total edges in the network = " + totEdges);
+		
+		// I now display, for each bucket, the average number of nodes falling into that bucket
+		// for a generic node 		
+		System.out.println("=========== Distances ===========");
+		for(int i = 0; i < distances.length; i++) {
+			System.out.print(i + "->" + (long) distances[i] + "   ");
+			if(i % 5 == 0 && i != 0)
+				System.out.println();
+		}
+		System.out.println();
+		System.out.println("=========== End Distances ===========");
+		
+		// The in degree of every node is kept by the registry while the network is built
+		System.out.println("Now printing 10 lowest in-degrees");
+		for(int h : nodes.lowestInDegrees(10))
+			System.out.println("ID: " + nodes.getId(h) + " generated " + nodes.get(h).getGenerationOrder() + "th and has inDegree " + nodes.getInDegree(h));
+		
+		System.out.println("Now printing 10 highest in-degrees");
+		for(int h : nodes.highestInDegrees(10))
+			System.out.println("ID: " + nodes.getId(h) + " generated " + nodes.get(h).getGenerationOrder() + "th and has inDegree " + nodes.getInDegree(h));
+		
+		dumpMetrics();
+		if (analytics)
+			dumpAnalytics();
+		if (anfLog2m > 0)
+			dumpApproximateAnalytics();
+	}
+	
+	/**
+	 * This method estimates the neighbourhood function of the network with HyperANF, and
+	 * displays it together with the average distance and the effective diameter. These are
+	 * averaged over ANF_RUNS independent runs, and given with their standard deviation
+	 */
+	private void dumpApproximateAnalytics() {
+		long startTime = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			HyperAnf anf = new HyperAnf(CsrGraph.fromRegistry(nodes), anfLog2m, pool);
+			double[][] runs = new double[ANF_RUNS][];
+			double[] avgDistances = new double[ANF_RUNS], effDiameters = new double[ANF_RUNS];
+			int maxLength = 0;
+			for (int r = 0; r < ANF_RUNS; r++) {
+				runs[r] = anf.neighbourhoodFunction(seed + r);
+				avgDistances[r] = HyperAnf.averageDistance(runs[r]);
+				effDiameters[r] = HyperAnf.effectiveDiameter(runs[r], 0.9);
+				maxLength = Math.max(maxLength, runs[r].length);
+			}
+			System.out.println("=========== Approximate Analytics ===========");
+			System.out.println("HyperANF with " + (1 << anfLog2m) + " registers per node, " + ANF_RUNS + " runs");
+			System.out.println("Neighbourhood function (relative standard error " 
+					+ Math.round(anf.relativeStandardError() * 1000) / 10.0 + "%):");
+			for (int t = 0; t < maxLength; t++) {
+				double sum = 0;
+				for (double[] nf : runs)
+					sum += nf[Math.min(t, nf.length - 1)];
+				System.out.println("N(" + t + ") = " + (long) (sum / ANF_RUNS));
+			}
+			System.out.println("Average distance = " + mean(avgDistances) + " +- " + standardDeviation(avgDistances));
+			System.out.println("Effective diameter (90%) = " + mean(effDiameters) + " +- " + standardDeviation(effDiameters));
+			System.out.println("Diameter is at least " + (maxLength - 1));
+			System.out.println("Time needed by the approximate analytics " + ((double) (System.currentTimeMillis() - startTime) / 1000) + " seconds");
+			System.out.println("=========== End Approximate Analytics ===========");
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Returns the mean of the values
+	 */
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double v : values)
+			sum += v;
+		return sum / values.length;
+	}
+	
+	/**
+	 * Returns the sample standard deviation of the values
+	 */
+	private static double standardDeviation(double[] values) {
+		if (values.length < 2)
+			return 0;
+		double mean = mean(values), sum = 0;
+		for (double v : values)
+			sum += (v - mean) * (v - mean);
+		return Math.sqrt(sum / (values.length - 1));
+	}
+	
+	/**
+	 * This method displays the percentiles of the lookup metrics and the counters of the
+	 * routing table updates
+	 */
+	private void dumpMetrics() {
+		System.out.println("=========== Lookup metrics ===========");
+		System.out.printf("%-38s %10s %8s %6s %6s %6s %6s %6s%n", "", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+		for (int i = 0; i < LookupMetrics.NAMES.length; i++) {
+			Histogram h = metrics.getHistogram(i);
+			System.out.printf("%-38s %10d %8.2f %6d %6d %6d %6d %6d%n", LookupMetrics.NAMES[i], h.getCount(), h.getMean(),
+					h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+					h.getValueAtPercentile(99.9), h.getMax());
+		}
+		System.out.println("Routing table insertions = " + metrics.getInserts() + ", refreshes = " + metrics.getRefreshes()
+				+ ", pings = " + metrics.getPings() + ", evictions = " + metrics.getEvictions()
+				+ ", removals = " + metrics.getRemovals() + ", RPC timeouts = " + metrics.getTimeouts());
+		System.out.println("=========== End Lookup metrics ===========");
+	}
+	
+	/**
+	 * This method computes and displays the statistics of the topology of the network,
+	 * working on its CSR graph with a fork/join pool
+	 */
+	private void dumpAnalytics() {
+		long startTime = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			GraphAnalytics graph = new GraphAnalytics(CsrGraph.fromRegistry(nodes), pool);
+			System.out.println("=========== Analytics ===========");
+			System.out.println("Average degree = " + graph.averageDegree());
+			System.out.println("Out degree distribution:");
+			printDistribution(graph.outDegreeDistribution());
+			System.out.println("In degree distribution:");
+			printDistribution(graph.inDegreeDistribution());
+			System.out.println("Directed clustering coefficient = " + graph.directedClustering());
+			System.out.println("Undirected clustering coefficient = " + graph.undirectedClustering());
+			System.out.println("Distance distribution:");
+			printDistribution(graph.distanceDistribution());
+			System.out.println("Diameter = " + graph.diameter());
+			System.out.println("Average path length = " + graph.averagePathLength());
+			System.out.println("Pairs not connected by a path = " + graph.unreachablePairs());
+			System.out.println("Time needed by the analytics " + ((double) (System.currentTimeMillis() - startTime) / 1000) + " seconds");
+			System.out.println("=========== End Analytics ===========");
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Prints the non zero entries of a distribution, as "value->count"
+	 * @param distribution the distribution, position i contains the count of value i
+	 */
+	private static void printDistribution(long[] distribution) {
+		int printed = 0;
+		for (int i = 0; i < distribution.length; i++) {
+			if (distribution[i] == 0)
+				continue;
+			System.out.print(i + "->" + distribution[i] + "  ");
+			if (++printed % 10 == 0)
+				System.out.println();
+		}
+		System.out.println();
+	}
+	
+}
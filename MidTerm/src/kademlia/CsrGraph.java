@@ -0,0 +1,166 @@
+package kademlia;
+
+import java.util.Arrays;
+
+/**
+ * This class models an immutable graph in CSR (compressed sparse row) form: the nodes
+ * are the handles [0, n) of the NodeRegistry, and the out neighbours of node v are the
+ * targets in positions [start(v), end(v)). This is the representation used by the
+ * analytics, since it takes two int arrays for the whole network and it is visited
+ * without touching any routing table or identifier
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class CsrGraph {
+
+	/* Private Fields */
+
+	private final int[] offsets;
+	private final int[] targets;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds the graph starting from its arrays (which are not copied)
+	 * @param offsets n + 1 offsets, non decreasing, starting from 0
+	 * @param targets the targets of the edges, offsets[n] of them
+	 */
+	public CsrGraph(int[] offsets, int[] targets) {
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+
+	/* Factory methods */
+
+	/**
+	 * Builds the directed graph of the network: there is an edge (x, y) if y is in the
+	 * routing table of x. The network must not change while the graph is built
+	 * @param registry the registry of the nodes of the network
+	 * @return the graph
+	 */
+	public static CsrGraph fromRegistry(NodeRegistry registry) {
+		int n = registry.size();
+		int[] offsets = new int[n + 1];
+		long edges = 0;
+		for (int h = 0; h < n; h++) {
+			edges += registry.get(h).exposeNumberOfEdges();
+			if (edges > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("too many edges for a CSR graph");
+			offsets[h + 1] = (int) edges;
+		}
+		int[] targets = new int[(int) edges];
+		for (int h = 0; h < n; h++) {
+			if (registry.get(h).exposeNeighbours(targets, offsets[h]) != offsets[h + 1] - offsets[h])
+				throw new IllegalStateException("the routing table of node " + h + " changed while building the graph");
+		}
+		return new CsrGraph(offsets, targets);
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the number of nodes
+	 * @return n
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Returns the number of edges
+	 * @return the number of edges
+	 */
+	public long edges() {
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * Returns the position of the first out neighbour of v
+	 * @param v the node
+	 * @return the start of the neighbours of v
+	 */
+	public int start(int v) {
+		return offsets[v];
+	}
+
+	/**
+	 * Returns the position following the last out neighbour of v
+	 * @param v the node
+	 * @return the end of the neighbours of v
+	 */
+	public int end(int v) {
+		return offsets[v + 1];
+	}
+
+	/**
+	 * Returns the node at the end of the edge in position i
+	 * @param i the position, in [0, edges)
+	 * @return the target node
+	 */
+	public int target(int i) {
+		return targets[i];
+	}
+
+	/**
+	 * Returns the out degree of v
+	 * @param v the node
+	 * @return the number of out neighbours
+	 */
+	public int degree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	/**
+	 * Builds the transposed graph, where every edge (x, y) becomes (y, x). The out degrees
+	 * of the transposed graph are the in degrees of this one
+	 * @return the transposed graph
+	 */
+	public CsrGraph transpose() {
+		int n = size();
+		int[] tOffsets = new int[n + 1];
+		for (int target : targets)
+			tOffsets[target + 1]++;
+		for (int v = 0; v < n; v++)
+			tOffsets[v + 1] += tOffsets[v];
+		int[] fill = Arrays.copyOf(tOffsets, n);
+		int[] tTargets = new int[targets.length];
+		for (int v = 0; v < n; v++) {
+			for (int i = offsets[v]; i < offsets[v + 1]; i++)
+				tTargets[fill[targets[i]]++] = v;
+		}
+		return new CsrGraph(tOffsets, tTargets);
+	}
+
+	/**
+	 * Builds the undirected simple graph underlying this one: x and y are neighbours if
+	 * there is at least an edge between them, in any direction. The neighbours of every
+	 * node are sorted, and self loops are dropped
+	 * @return the undirected graph, with both (x, y) and (y, x) for every pair of neighbours
+	 */
+	public CsrGraph undirected() {
+		int n = size();
+		CsrGraph transposed = transpose();
+		int[] uOffsets = new int[n + 1];
+		int[] uTargets = new int[2 * targets.length];
+		int written = 0;
+		for (int v = 0; v < n; v++) {
+			int from = written;
+			for (int i = offsets[v]; i < offsets[v + 1]; i++)
+				uTargets[written++] = targets[i];
+			for (int i = transposed.start(v); i < transposed.end(v); i++)
+				uTargets[written++] = transposed.target(i);
+			// I sort the neighbours and compact them, removing duplicates and self loops
+			Arrays.sort(uTargets, from, written);
+			int compact = from;
+			for (int i = from; i < written; i++) {
+				if (uTargets[i] != v && (compact == from || uTargets[compact - 1] != uTargets[i]))
+					uTargets[compact++] = uTargets[i];
+			}
+			written = compact;
+			uOffsets[v + 1] = written;
+		}
+		return new CsrGraph(uOffsets, Arrays.copyOf(uTargets, written));
+	}
+
+}
@@ -0,0 +1,318 @@
+package kademlia;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class computes the main statistics of the topology of the network (the ones
+ * required by the midTerm text) directly on its CsrGraph, in parallel with fork/join:
+ * - the out degree and in degree distributions;
+ * - the average clustering coefficient, both directed (for the out neighbourhood of x,
+ *   the fraction of the d(d - 1) possible edges among them which are present) and
+ *   undirected (on the underlying simple undirected graph, as Gephi and NetworkX do);
+ * - the distance distribution of the directed graph, and from it the exact diameter and
+ *   average path length. The distances are computed by a BFS from every node, where 64
+ *   BFS at a time share the same visit of the graph (one bit of a long for every source).
+ * Pairs of nodes which are not connected by a path are not considered by the diameter
+ * and the average path length, they are counted apart
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class GraphAnalytics {
+
+	/* Private Fields */
+
+	private final CsrGraph graph;
+	private final CsrGraph transposed;
+	private final ForkJoinPool pool;
+	// The number of nodes (or of sources) below which a task is not split anymore
+	private final int threshold;
+	private long[] distances;
+	// The marks of the neighbours used by the clustering, one array per worker thread, and
+	// the first stamp not used yet by a clustering pass
+	private ThreadLocal<int[]> marks;
+	private int nextStamp;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the analytics
+	 * @param graph the directed graph of the network
+	 * @param pool the pool executing the tasks
+	 */
+	public GraphAnalytics(CsrGraph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		this.transposed = graph.transpose();
+		this.pool = pool;
+		this.threshold = Math.max(64, graph.size() / (pool.getParallelism() * 8));
+		this.marks = ThreadLocal.withInitial(() -> new int[graph.size()]);
+		this.nextStamp = 1;
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the out degree distribution
+	 * @return an array where position d contains the number of nodes with out degree d
+	 */
+	public long[] outDegreeDistribution() {
+		return degreeDistribution(graph);
+	}
+
+	/**
+	 * Returns the in degree distribution
+	 * @return an array where position d contains the number of nodes with in degree d
+	 */
+	public long[] inDegreeDistribution() {
+		return degreeDistribution(transposed);
+	}
+
+	/**
+	 * Returns the average (out or in) degree of the nodes
+	 * @return the number of edges divided by the number of nodes
+	 */
+	public double averageDegree() {
+		return (graph.size() == 0) ? 0 : (double) graph.edges() / graph.size();
+	}
+
+	/**
+	 * Returns the average directed clustering coefficient: for every node x with out
+	 * degree d, the number of edges among its out neighbours divided by d(d - 1)
+	 * (0 if d is less than 2), averaged over all the nodes
+	 * @return the directed clustering coefficient
+	 */
+	public double directedClustering() {
+		return averageClustering(graph);
+	}
+
+	/**
+	 * Returns the average clustering coefficient of the underlying undirected graph: for
+	 * every node x with d neighbours, the number of triangles through x divided by
+	 * d(d - 1) / 2 (0 if d is less than 2), averaged over all the nodes
+	 * @return the undirected clustering coefficient
+	 */
+	public double undirectedClustering() {
+		return averageClustering(graph.undirected());
+	}
+
+	/**
+	 * Returns the distance distribution of the directed graph, computing it the first time
+	 * @return an array where position d contains the number of ordered pairs (x, y), x != y,
+	 * such that the shortest path from x to y has d edges
+	 */
+	public synchronized long[] distanceDistribution() {
+		if (distances == null) {
+			int batches = (graph.size() + 63) / 64;
+			distances = pool.invoke(new DistanceTask(0, batches));
+		}
+		return distances;
+	}
+
+	/**
+	 * Returns the diameter of the directed graph (the longest shortest path)
+	 * @return the diameter, 0 if no pair of nodes is connected
+	 */
+	public int diameter() {
+		long[] d = distanceDistribution();
+		for (int i = d.length - 1; i > 0; i--) {
+			if (d[i] != 0)
+				return i;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the average length of the shortest paths between the connected pairs
+	 * @return the average path length, 0 if no pair of nodes is connected
+	 */
+	public double averagePathLength() {
+		long[] d = distanceDistribution();
+		long pairs = 0;
+		double sum = 0;
+		for (int i = 1; i < d.length; i++) {
+			pairs += d[i];
+			sum += (double) i * d[i];
+		}
+		return (pairs == 0) ? 0 : sum / pairs;
+	}
+
+	/**
+	 * Returns the number of ordered pairs (x, y), x != y, without a path from x to y
+	 * @return the number of unreachable pairs
+	 */
+	public long unreachablePairs() {
+		long[] d = distanceDistribution();
+		long n = graph.size();
+		long reachable = 0;
+		for (int i = 1; i < d.length; i++)
+			reachable += d[i];
+		return n * (n - 1) - reachable;
+	}
+
+	/**
+	 * Counts the out degrees of the graph
+	 */
+	private static long[] degreeDistribution(CsrGraph g) {
+		int max = 0;
+		for (int v = 0; v < g.size(); v++)
+			max = Math.max(max, g.degree(v));
+		long[] distribution = new long[max + 1];
+		for (int v = 0; v < g.size(); v++)
+			distribution[g.degree(v)]++;
+		return distribution;
+	}
+
+	/**
+	 * Averages the local clustering coefficients of g, computed in parallel. Every pass
+	 * takes g.size() stamps never used before, so the marks of the previous passes, still
+	 * in the arrays of the workers, do not need to be cleared
+	 */
+	private double averageClustering(CsrGraph g) {
+		if (g.size() == 0)
+			return 0;
+		if (nextStamp > Integer.MAX_VALUE - g.size()) {
+			// The stamps are over: the workers will allocate new arrays
+			marks = ThreadLocal.withInitial(() -> new int[graph.size()]);
+			nextStamp = 1;
+		}
+		int first = nextStamp;
+		nextStamp += g.size();
+		return pool.invoke(new ClusteringTask(g, 0, g.size(), first)) / g.size();
+	}
+
+	/**
+	 * Adds two distance distributions, returning the longest one
+	 */
+	private static long[] add(long[] a, long[] b) {
+		if (a.length < b.length)
+			return add(b, a);
+		for (int i = 0; i < b.length; i++)
+			a[i] += b[i];
+		return a;
+	}
+
+	/**
+	 * This task sums the local clustering coefficients of the nodes in [from, to)
+	 */
+	private final class ClusteringTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		private final CsrGraph g;
+		private final int from, to, first;
+
+		ClusteringTask(CsrGraph g, int from, int to, int first) {
+			this.g = g;
+			this.from = from;
+			this.to = to;
+			this.first = first;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				ClusteringTask left = new ClusteringTask(g, from, middle, first);
+				left.fork();
+				double right = new ClusteringTask(g, middle, to, first).compute();
+				return left.join() + right;
+			}
+			// mark[y] == first + x if y is a neighbour of x, the node being processed: the
+			// array of the worker is reused by all its tasks, without clearing it
+			int[] mark = marks.get();
+			double sum = 0;
+			for (int x = from; x < to; x++) {
+				int d = g.degree(x);
+				if (d < 2)
+					continue;
+				int stamp = first + x;
+				for (int i = g.start(x); i < g.end(x); i++)
+					mark[g.target(i)] = stamp;
+				long links = 0;
+				for (int i = g.start(x); i < g.end(x); i++) {
+					int y = g.target(i);
+					for (int j = g.start(y); j < g.end(y); j++) {
+						int z = g.target(j);
+						if (mark[z] == stamp && z != y)
+							links++;
+					}
+				}
+				// In the undirected graph every edge among the neighbours is found from both its
+				// ends, so links is twice the triangles and the same formula works for both
+				sum += (double) links / ((long) d * (d - 1));
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * This task computes the distance distribution of the sources in the batches [from, to),
+	 * where batch b contains the sources [64b, 64b + 64)
+	 */
+	private final class DistanceTask extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		DistanceTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				DistanceTask left = new DistanceTask(from, middle);
+				left.fork();
+				long[] right = new DistanceTask(middle, to).compute();
+				return add(left.join(), right);
+			}
+			return bfs(from);
+		}
+
+		/**
+		 * Visits the graph from the 64 sources of the batch at the same time: the bit s of
+		 * seen[v] is set if v was reached by the source 64 * batch + s. At every level, a node
+		 * collects from its in neighbours the sources that reached them at the previous one
+		 */
+		private long[] bfs(int batch) {
+			int n = graph.size();
+			long[] seen = new long[n];
+			long[] frontier = new long[n];
+			long[] next = new long[n];
+			long[] result = new long[16];
+			int first = batch * 64;
+			for (int s = 0; s < 64 && first + s < n; s++) {
+				seen[first + s] = 1L << s;
+				frontier[first + s] = 1L << s;
+			}
+			boolean active = true;
+			for (int level = 1; active; level++) {
+				active = false;
+				long reached = 0;
+				for (int v = 0; v < n; v++) {
+					long bits = 0;
+					for (int i = transposed.start(v); i < transposed.end(v); i++)
+						bits |= frontier[transposed.target(i)];
+					bits &= ~seen[v];
+					next[v] = bits;
+					if (bits != 0) {
+						seen[v] |= bits;
+						reached += Long.bitCount(bits);
+						active = true;
+					}
+				}
+				if (active) {
+					if (level == result.length)
+						result = Arrays.copyOf(result, level * 2);
+					result[level] = reached;
+				}
+				long[] tmp = frontier;
+				frontier = next;
+				next = tmp;
+			}
+			return result;
+		}
+	}
+
+}
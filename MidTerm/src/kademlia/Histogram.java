@@ -0,0 +1,205 @@
+package kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class models a histogram of non negative long values in constant memory, with
+ * log-linear buckets (as HdrHistogram does): the values below 32 have a bucket each,
+ * then every power of two is split in 32 buckets of the same width, so the error on a
+ * recorded value is less than 1/32 of the value. All the methods are thread safe, and
+ * histograms with the same layout can be merged, so many threads can record in different
+ * histograms that are added together at the end
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Histogram {
+
+	/* Private Fields */
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Buckets of the values below SUB_BUCKETS, then SUB_BUCKETS for every exponent up to 62
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count, sum, max;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty histogram
+	 */
+	public Histogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/* Methods */
+
+	/**
+	 * Records a value
+	 * @param value the value, not negative
+	 */
+	public void record(long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative value " + value);
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * Adds all the values recorded by other to this histogram
+	 * @param other the other histogram
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0)
+				counts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long otherMax = other.max.get(), current;
+		while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax))
+			;
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the exact mean of the recorded values
+	 * @return the mean, 0 if no value was recorded
+	 */
+	public double getMean() {
+		long c = count.get();
+		return (c == 0) ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * Returns the exact maximum recorded value
+	 * @return the maximum, 0 if no value was recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the number of recorded values in the same bucket of value (exactly the number
+	 * of times value was recorded, if it is below 32)
+	 * @param value the value
+	 * @return the count of the bucket of value
+	 */
+	public long getCountAt(long value) {
+		return counts.get(indexOf(value));
+	}
+
+	/**
+	 * Returns the value at the given percentile: the highest value of the bucket which
+	 * contains the recorded value of that rank (never above the maximum)
+	 * @param percentile the percentile, in [0, 100]
+	 * @return the value, 0 if no value was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long c = count.get();
+		if (c == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * c));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValueAt(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns the number of bytes written by writeTo
+	 * @return the size of the histogram in binary form
+	 */
+	public int serializedSize() {
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts.get(i) != 0)
+				used++;
+		}
+		return 3 * 8 + 4 + used * 12;
+	}
+
+	/**
+	 * Writes the histogram to the buffer: count, sum and maximum, then the number of non
+	 * empty buckets, and the index (int) and the count (long) of each one of them. The
+	 * histogram must not change while it is written
+	 * @param buffer the buffer, with at least serializedSize() bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putLong(count.get()).putLong(sum.get()).putLong(max.get());
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts.get(i) != 0)
+				used++;
+		}
+		buffer.putInt(used);
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = counts.get(i);
+			if (c != 0)
+				buffer.putInt(i).putLong(c);
+		}
+	}
+
+	/**
+	 * Adds to this histogram the values of a histogram written by writeTo
+	 * @param buffer the buffer, positioned at the start of the histogram
+	 */
+	public void readFrom(ByteBuffer buffer) {
+		count.addAndGet(buffer.getLong());
+		sum.addAndGet(buffer.getLong());
+		long otherMax = buffer.getLong(), current;
+		while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax))
+			;
+		for (int used = buffer.getInt(); used > 0; used--) {
+			int i = buffer.getInt();
+			counts.addAndGet(i, buffer.getLong());
+		}
+	}
+
+	/**
+	 * Returns the bucket of value
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		// The SUB_BITS bits following the highest set bit choose the bucket
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the highest value falling into the bucket with given index
+	 */
+	private static long highestValueAt(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+}
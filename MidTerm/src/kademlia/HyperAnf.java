@@ -0,0 +1,265 @@
+package kademlia;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class estimates the neighbourhood function of the directed graph of the network,
+ * N(t) = the number of ordered pairs (x, y) such that y can be reached from x in at most
+ * t hops, as done by HyperANF: every node x keeps a HyperLogLog counter of the set of
+ * nodes at distance at most t from it, and at every pass the counter of x becomes the
+ * union of its own counter and of the counters of its out neighbours. The passes stop
+ * when no counter changes, which happens after (diameter + 1) passes.
+ * A counter is made of 2^log2m byte registers, so the counters take 2 * 2^log2m bytes per
+ * node (the current and the next pass), and the relative standard error of every N(t)
+ * is about 1.04 / sqrt(2^log2m). The nodes are processed in parallel with fork/join, and
+ * a node is processed again only if the counter of one of its neighbours changed
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class HyperAnf {
+
+	/* Private Fields */
+
+	private final CsrGraph graph;
+	private final int log2m;
+	private final int registers;
+	private final ForkJoinPool pool;
+	private final int threshold;
+	private final double alphaMM;
+
+	private byte[] current, next;
+	private boolean[] changed, nextChanged;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the estimator
+	 * @param graph the directed graph of the network
+	 * @param log2m the logarithm of the number of registers per counter, in [4, 16]
+	 * @param pool the pool executing the passes
+	 */
+	public HyperAnf(CsrGraph graph, int log2m, ForkJoinPool pool) {
+		if (log2m < 4 || log2m > 16)
+			throw new IllegalArgumentException("log2m must be in [4, 16]");
+		this.graph = graph;
+		this.log2m = log2m;
+		this.registers = 1 << log2m;
+		this.pool = pool;
+		this.threshold = Math.max(256, graph.size() / (pool.getParallelism() * 8));
+		double alpha;
+		switch (registers) {
+		case 16:
+			alpha = 0.673;
+			break;
+		case 32:
+			alpha = 0.697;
+			break;
+		case 64:
+			alpha = 0.709;
+			break;
+		default:
+			alpha = 0.7213 / (1 + 1.079 / registers);
+		}
+		alphaMM = alpha * registers * registers;
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the relative standard error of every value of the neighbourhood function
+	 * @return 1.04 / sqrt(2^log2m)
+	 */
+	public double relativeStandardError() {
+		return 1.04 / Math.sqrt(registers);
+	}
+
+	/**
+	 * Estimates the neighbourhood function, hashing the nodes with the given seed (different
+	 * seeds give independent estimates)
+	 * @param seed the seed of the hash function
+	 * @return an array where position t contains the estimate of N(t), the last position
+	 * is the one where all the counters stopped changing
+	 */
+	public double[] neighbourhoodFunction(long seed) {
+		int n = graph.size();
+		if ((long) n * registers > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("too many registers, use a smaller log2m");
+		current = new byte[n * registers];
+		next = new byte[n * registers];
+		changed = new boolean[n];
+		nextChanged = new boolean[n];
+		// N(0): every counter contains only its node
+		for (int v = 0; v < n; v++) {
+			long hash = mix(v + seed * 0x9E3779B97F4A7C15L);
+			int register = (int) (hash >>> (64 - log2m));
+			int rank = Math.min(Long.numberOfLeadingZeros(hash << log2m), 64 - log2m) + 1;
+			current[v * registers + register] = (byte) rank;
+			changed[v] = true;
+		}
+		double[] nf = new double[16];
+		nf[0] = pool.invoke(new EstimateTask(0, n));
+		int t = 0;
+		while (true) {
+			long modified = pool.invoke(new PassTask(0, n));
+			byte[] tmp = current;
+			current = next;
+			next = tmp;
+			boolean[] tmpChanged = changed;
+			changed = nextChanged;
+			nextChanged = tmpChanged;
+			if (modified == 0)
+				break;
+			if (++t == nf.length)
+				nf = Arrays.copyOf(nf, t * 2);
+			nf[t] = pool.invoke(new EstimateTask(0, n));
+		}
+		current = next = null;
+		changed = nextChanged = null;
+		return Arrays.copyOf(nf, t + 1);
+	}
+
+	/**
+	 * Returns the average distance between the connected pairs, from a neighbourhood function
+	 * @param nf the neighbourhood function
+	 * @return the average distance, 0 if no pair is connected
+	 */
+	public static double averageDistance(double[] nf) {
+		double pairs = nf[nf.length - 1] - nf[0];
+		if (pairs <= 0)
+			return 0;
+		double sum = 0;
+		for (int t = 1; t < nf.length; t++)
+			sum += t * (nf[t] - nf[t - 1]);
+		return sum / pairs;
+	}
+
+	/**
+	 * Returns the effective diameter: the (interpolated) number of hops within which the
+	 * given fraction of the connected pairs is reached
+	 * @param nf the neighbourhood function
+	 * @param fraction the fraction of pairs, usually 0.9
+	 * @return the effective diameter, 0 if no pair is connected
+	 */
+	public static double effectiveDiameter(double[] nf, double fraction) {
+		double target = nf[0] + fraction * (nf[nf.length - 1] - nf[0]);
+		for (int t = 1; t < nf.length; t++) {
+			if (nf[t] >= target) {
+				double step = nf[t] - nf[t - 1];
+				return (step <= 0) ? t : t - 1 + (target - nf[t - 1]) / step;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Estimates the size of the set represented by the counter of v
+	 */
+	private double estimate(byte[] counters, int v) {
+		double sum = 0;
+		int zeros = 0;
+		int base = v * registers;
+		for (int r = 0; r < registers; r++) {
+			int value = counters[base + r];
+			sum += 1.0 / (1L << value);
+			if (value == 0)
+				zeros++;
+		}
+		double e = alphaMM / sum;
+		// Small range correction (linear counting)
+		if (e <= 2.5 * registers && zeros != 0)
+			return registers * Math.log((double) registers / zeros);
+		return e;
+	}
+
+	/**
+	 * A 64 bit mixing function (the finalizer of MurmurHash3)
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * This task executes a pass on the nodes in [from, to), writing the next counters and
+	 * returning the number of counters that changed
+	 */
+	private final class PassTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		PassTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				PassTask left = new PassTask(from, middle);
+				left.fork();
+				long right = new PassTask(middle, to).compute();
+				return left.join() + right;
+			}
+			long modified = 0;
+			for (int v = from; v < to; v++) {
+				int base = v * registers;
+				System.arraycopy(current, base, next, base, registers);
+				boolean modifiedV = false;
+				for (int i = graph.start(v); i < graph.end(v); i++) {
+					int u = graph.target(i);
+					// A counter which did not change in the last pass adds nothing new
+					if (!changed[u])
+						continue;
+					int other = u * registers;
+					for (int r = 0; r < registers; r++) {
+						if (current[other + r] > next[base + r]) {
+							next[base + r] = current[other + r];
+							modifiedV = true;
+						}
+					}
+				}
+				nextChanged[v] = modifiedV;
+				if (modifiedV)
+					modified++;
+			}
+			return modified;
+		}
+	}
+
+	/**
+	 * This task sums the estimates of the counters of the nodes in [from, to)
+	 */
+	private final class EstimateTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		EstimateTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				EstimateTask left = new EstimateTask(from, middle);
+				left.fork();
+				double right = new EstimateTask(middle, to).compute();
+				return left.join() + right;
+			}
+			double sum = 0;
+			for (int v = from; v < to; v++)
+				sum += estimate(current, v);
+			return sum;
+		}
+	}
+
+}
@@ -0,0 +1,365 @@
+package kademlia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates the identifiers of the nodes in batches, in parallel. As in
+ * Utils.generateNewNode, every node gets a random IP address and its identifier is the
+ * hash of the address modulo 2^m, with one of these hash functions:
+ * - sha1       the SHA1 of the dotted quad, as Utils.generateNewNode (every thread has
+ *              its own MessageDigest);
+ * - splitmix   a chain of SplitMix64 finalizers of the address, much faster and as good
+ *              for a simulation, which does not need a cryptographic hash.
+ * The identifiers can also be skewed, to stress the routing tables: with the distribution
+ * clustered:C:B[:S] every identifier takes its B highest bits from one of C random
+ * centers (drawn with a zipf distribution of exponent S, uniformly by default), so the
+ * nodes crowd in C small regions of the space; uniform is the default.
+ * The nodes are split in blocks of BLOCK consecutive indexes, and every block draws from
+ * its own SplittableRandom, seeded from the seed and the number of the block: the node of
+ * a given index is always the same, whatever the number of threads and the first index of
+ * the batch (a network restored from a checkpoint continues with the same nodes).
+ * The uniqueness check is done without objects: every thread owns a shard of the hashes of
+ * the identifiers, and an open addressing table of int indexes where it inserts, in index
+ * order, the identifiers of its shard. The first occurrence of an identifier is kept, the
+ * duplicates are generated again, in index order, so the result is deterministic too
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class IdGenerator {
+
+	/* Private Fields */
+
+	private static final int BLOCK = 4096;
+	private static final int SHA1 = 0, SPLITMIX = 1;
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	private final int m;
+	private final long seed;
+	private final int hash;
+	private final String distribution;
+	private final int prefixBits;
+	private final NodeId[] centers;
+	private final Workload.Zipf centerRanks;
+	private long duplicates;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it parses the hash function and the distribution
+	 * @param m the number of bits of the identifiers
+	 * @param hash sha1 or splitmix
+	 * @param distribution uniform or clustered:C:B[:S], see the description of the class
+	 * @param seed the seed of the addresses and of the centers
+	 */
+	public IdGenerator(int m, String hash, String distribution, long seed) {
+		this.m = m;
+		this.seed = seed;
+		this.distribution = distribution;
+		this.hash = parseHash(hash);
+		if (distribution.equals("uniform")) {
+			prefixBits = 0;
+			centers = null;
+			centerRanks = null;
+			return;
+		}
+		String[] parts = parseClusters(m, distribution);
+		int count = Integer.parseInt(parts[1]);
+		prefixBits = Integer.parseInt(parts[2]);
+		SplittableRandom rand = new SplittableRandom(mix(seed ^ GOLDEN));
+		centers = new NodeId[count];
+		for (int c = 0; c < count; c++)
+			centers[c] = new NodeId(rand.nextLong(), rand.nextLong(), rand.nextLong()).mask(m);
+		centerRanks = (parts.length == 4) ? new Workload.Zipf(count, Double.parseDouble(parts[3])) : null;
+	}
+
+	/* Methods */
+
+	/**
+	 * Checks the hash function and the distribution as the constructor does, without
+	 * building the generator (and drawing the centers)
+	 * @param m the number of bits of the identifiers
+	 * @param hash sha1 or splitmix
+	 * @param distribution uniform or clustered:C:B[:S], see the description of the class
+	 * @throws IllegalArgumentException if the hash function or the distribution are wrong
+	 */
+	public static void validate(int m, String hash, String distribution) {
+		parseHash(hash);
+		if (!distribution.equals("uniform"))
+			parseClusters(m, distribution);
+	}
+
+	/**
+	 * Generates the nodes with the indexes [from, from + count), all with different
+	 * identifiers
+	 * @param from the index of the first node
+	 * @param count the number of nodes
+	 * @param threads the threads generating them
+	 * @return the nodes, in index order
+	 * @throws IllegalArgumentException if there are less identifiers than nodes
+	 */
+	public Node[] generate(long from, int count, int threads) {
+		// The identifiers are at most 2^32 (the addresses) for every center
+		int clusters = (centers != null) ? centers.length : 1;
+		if (count > clusters * Math.pow(2, Math.min(32, m - prefixBits)))
+			throw new IllegalArgumentException("there are less than " + count + " identifiers with m = " + m
+					+ " and " + distribution + " identifiers");
+		Node[] generated = new Node[count];
+		int[] hashes = new int[count];
+		int workers = Math.max(1, Math.min(threads, (count + BLOCK - 1) / BLOCK));
+		ExecutorService pool = (workers > 1) ? Executors.newFixedThreadPool(workers) : null;
+		try {
+			// The blocks are taken in turns by the workers
+			runAll(pool, workers, w -> {
+				for (long block = from / BLOCK + w; block * BLOCK < from + count; block += workers)
+					generateBlock(block, from, count, generated, hashes);
+			});
+			// Every worker checks the uniqueness in its own shard of the hashes
+			IndexSet[] shards = new IndexSet[workers];
+			boolean[] duplicate = new boolean[count];
+			runAll(pool, workers, w -> {
+				IndexSet shard = new IndexSet(generated, count / workers + 1);
+				for (int i = 0; i < count; i++) {
+					if (shardOf(hashes[i], workers) == w && !shard.add(i, hashes[i]))
+						duplicate[i] = true;
+				}
+				shards[w] = shard;
+			});
+			// The duplicates are few, they are generated again on this thread
+			for (int i = 0; i < count; i++) {
+				if (!duplicate[i])
+					continue;
+				SplittableRandom rand = new SplittableRandom(mix(seed ^ mix(~(from + i))));
+				do {
+					duplicates++;
+					generated[i] = generateNode(rand);
+					hashes[i] = hashOf(generated[i].getId());
+				} while (!shards[shardOf(hashes[i], workers)].add(i, hashes[i]));
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		return generated;
+	}
+
+	/**
+	 * Generates a single node, drawing from the given random source (its identifier can
+	 * be equal to one generated before)
+	 * @param rand the random source
+	 * @return the node
+	 */
+	public Node next(Random rand) {
+		return generateNode(new SplittableRandom(rand.nextLong()));
+	}
+
+	/**
+	 * Returns the number of identifiers generated again since they were duplicates
+	 * @return the duplicates found by the batches
+	 */
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Returns the description of the hash function and of the distribution
+	 * @return the description
+	 */
+	@Override
+	public String toString() {
+		return ((hash == SHA1) ? "sha1" : "splitmix") + " hash, " + distribution + " identifiers";
+	}
+
+	/**
+	 * Generates the nodes of the block that are in [from, from + count), skipping the draws
+	 * of the ones before from (every node takes two draws)
+	 */
+	private void generateBlock(long block, long from, int count, Node[] generated, int[] hashes) {
+		SplittableRandom rand = new SplittableRandom(mix(seed ^ mix(block)));
+		long first = Math.max(block * BLOCK, from), last = Math.min((block + 1) * BLOCK, from + count);
+		for (long skip = block * BLOCK; skip < first; skip++) {
+			rand.nextLong();
+			rand.nextLong();
+		}
+		for (long index = first; index < last; index++) {
+			Node node = generateNode(rand);
+			generated[(int) (index - from)] = node;
+			hashes[(int) (index - from)] = hashOf(node.getId());
+		}
+	}
+
+	/**
+	 * Generates a node with a random address, taking exactly two draws from rand
+	 */
+	private Node generateNode(SplittableRandom rand) {
+		int address = (int) rand.nextLong();
+		long cluster = rand.nextLong();
+		String dotted = (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+				+ (address & 0xFF);
+		NodeId id;
+		if (hash == SHA1) {
+			id = NodeId.fromBytes(Utils.sha1(dotted.getBytes()), m);
+		} else {
+			long low = mix(address + GOLDEN), middle = mix(low + GOLDEN), high = mix(middle + GOLDEN);
+			id = new NodeId(high, middle, low).mask(m);
+		}
+		if (centers != null) {
+			// The highest bits come from the center, the others from the hash
+			double u = (cluster >>> 11) * 0x1.0p-53;
+			NodeId center = centers[(centerRanks != null) ? centerRanks.sample(u) : (int) (u * centers.length)];
+			NodeId low = id.mask(m - prefixBits), high = center.mask(m - prefixBits);
+			id = new NodeId(center.word(2) ^ high.word(2) | low.word(2), center.word(1) ^ high.word(1) | low.word(1),
+					center.word(0) ^ high.word(0) | low.word(0));
+		}
+		return new Node(id, dotted);
+	}
+
+	/**
+	 * Returns the constant of the hash function with the given name
+	 */
+	private static int parseHash(String hash) {
+		switch (hash) {
+		case "sha1":
+			return SHA1;
+		case "splitmix":
+			return SPLITMIX;
+		default:
+			throw new IllegalArgumentException("unknown hash function " + hash);
+		}
+	}
+
+	/**
+	 * Splits a clustered distribution in its parts, checking all of them
+	 */
+	private static String[] parseClusters(int m, String distribution) {
+		String[] parts = distribution.split(":");
+		if (!parts[0].equals("clustered") || parts.length < 3 || parts.length > 4)
+			throw new IllegalArgumentException("unknown identifier distribution " + distribution);
+		int count = Integer.parseInt(parts[1]);
+		int prefixBits = Integer.parseInt(parts[2]);
+		if (count < 1 || prefixBits < 1 || prefixBits > m)
+			throw new IllegalArgumentException("wrong parameters in " + distribution);
+		if (parts.length == 4)
+			Double.parseDouble(parts[3]);
+		return parts;
+	}
+
+	/**
+	 * Returns the hash of an identifier, used both for the shard and the table
+	 */
+	private static int hashOf(NodeId id) {
+		return (int) mix(id.word(0) + GOLDEN * (id.word(1) + GOLDEN * id.word(2)));
+	}
+
+	/**
+	 * Returns the shard of a hash, from its highest bits (the table uses the lowest ones)
+	 */
+	private static int shardOf(int hash, int shards) {
+		return (int) (((hash >>> 16) * (long) shards) >>> 16);
+	}
+
+	/**
+	 * The finalizer of SplitMix64, it spreads every bit of the input over the output
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Runs the task of every worker, on the pool or (with one worker) on this thread
+	 */
+	private static void runAll(ExecutorService pool, int workers, Worker task) {
+		if (pool == null) {
+			task.run(0);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>();
+		for (int w = 0; w < workers; w++) {
+			int worker = w;
+			futures.add(pool.submit(() -> task.run(worker)));
+		}
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while generating the identifiers", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("the generation of the identifiers failed", e.getCause());
+		}
+	}
+
+	/**
+	 * The task of a worker
+	 */
+	private interface Worker {
+		void run(int worker);
+	}
+
+	/**
+	 * An open addressing set of the identifiers of the nodes, storing their indexes and
+	 * hashes in int arrays, so that most of the probes do not read the identifiers
+	 */
+	private static final class IndexSet {
+		private final Node[] nodes;
+		private int[] indexes, hashes;
+		private int size;
+
+		IndexSet(Node[] nodes, int expected) {
+			this.nodes = nodes;
+			int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+			indexes = new int[capacity];
+			hashes = new int[capacity];
+			Arrays.fill(indexes, -1);
+		}
+
+		/**
+		 * Adds the identifier of the node with the given index
+		 * @return false if an identifier equal to it is already in the set
+		 */
+		boolean add(int index, int hash) {
+			if ((size + 1) * 2 > indexes.length)
+				grow();
+			NodeId id = nodes[index].getId();
+			int mask = indexes.length - 1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				if (indexes[i] == -1) {
+					indexes[i] = index;
+					hashes[i] = hash;
+					size++;
+					return true;
+				}
+				if (hashes[i] == hash && nodes[indexes[i]].getId().equals(id))
+					return false;
+			}
+		}
+
+		private void grow() {
+			int[] oldIndexes = indexes, oldHashes = hashes;
+			indexes = new int[oldIndexes.length * 2];
+			hashes = new int[oldIndexes.length * 2];
+			Arrays.fill(indexes, -1);
+			int mask = indexes.length - 1;
+			for (int j = 0; j < oldIndexes.length; j++) {
+				if (oldIndexes[j] == -1)
+					continue;
+				int i = oldHashes[j] & mask;
+				while (indexes[i] != -1)
+					i = (i + 1) & mask;
+				indexes[i] = oldIndexes[j];
+				hashes[i] = oldHashes[j];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package kademlia;
+
+/**
+ * This class models a single k-bucket of a routing table. Instead of a queue of Node
+ * objects it stores the handles of the nodes (as given by the NodeRegistry) in a compact
+ * int array, which grows up to the capacity k only when needed. Every used slot is
+ * linked in a doubly linked list (kept inside the same array) ordered from the least
+ * recently seen node to the most recently seen one, so that moving a node to the tail
+ * of the list, or evicting the least recently seen one, are constant time operations.
+ * Finding a node is a scan of at most k ints
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class KBucket {
+
+	/* Private Fields */
+
+	// Each slot takes three ints: the handle, the previous slot and the next slot
+	private static final int STRIDE = 3;
+	private static final int HANDLE = 0, PREV = 1, NEXT = 2;
+	private static final int INITIAL_SLOTS = 4;
+
+	private int[] slots;
+	private final int capacity;
+	private int size;
+	// head is the least recently seen, tail is the most recently seen
+	private int head, tail;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty bucket
+	 * @param capacity the maximum number of entries (k)
+	 */
+	public KBucket(int capacity) {
+		this.capacity = capacity;
+		slots = new int[Math.min(capacity, INITIAL_SLOTS) * STRIDE];
+		size = 0;
+		head = -1;
+		tail = -1;
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the slot of the given handle
+	 * @param handle the handle to find
+	 * @return the slot where handle is stored, -1 if not present
+	 */
+	public int indexOf(int handle) {
+		for (int s = 0, end = size * STRIDE; s < end; s += STRIDE) {
+			if (slots[s + HANDLE] == handle)
+				return s / STRIDE;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a new handle as the most recently seen one. The bucket must not be full
+	 * @param handle the handle to add
+	 */
+	public void add(int handle) {
+		if (size == capacity)
+			throw new IllegalStateException("bucket is full");
+		if (size * STRIDE == slots.length) {
+			int[] bigger = new int[Math.min(capacity, size * 2) * STRIDE];
+			System.arraycopy(slots, 0, bigger, 0, slots.length);
+			slots = bigger;
+		}
+		int slot = size++;
+		slots[slot * STRIDE + HANDLE] = handle;
+		linkLast(slot);
+	}
+
+	/**
+	 * Marks the entry in the given slot as the most recently seen one
+	 * @param slot the slot of the entry
+	 */
+	public void moveToTail(int slot) {
+		if (slot == tail)
+			return;
+		unlink(slot);
+		linkLast(slot);
+	}
+
+	/**
+	 * Evicts the least recently seen entry and puts handle in its place, as the most
+	 * recently seen one
+	 * @param handle the new handle
+	 * @return the evicted handle
+	 */
+	public int replaceLeastRecent(int handle) {
+		int slot = head;
+		int evicted = slots[slot * STRIDE + HANDLE];
+		slots[slot * STRIDE + HANDLE] = handle;
+		moveToTail(slot);
+		return evicted;
+	}
+
+	/**
+	 * Removes the entry in the given slot, the last slot is moved in its place so that
+	 * the used slots stay in [0, size)
+	 * @param slot the slot of the entry
+	 * @return the removed handle
+	 */
+	public int remove(int slot) {
+		int removed = slots[slot * STRIDE + HANDLE];
+		unlink(slot);
+		int last = --size;
+		if (slot != last) {
+			int prev = slots[last * STRIDE + PREV];
+			int next = slots[last * STRIDE + NEXT];
+			slots[slot * STRIDE + HANDLE] = slots[last * STRIDE + HANDLE];
+			slots[slot * STRIDE + PREV] = prev;
+			slots[slot * STRIDE + NEXT] = next;
+			if (prev == -1)
+				head = slot;
+			else
+				slots[prev * STRIDE + NEXT] = slot;
+			if (next == -1)
+				tail = slot;
+			else
+				slots[next * STRIDE + PREV] = slot;
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the handle of the least recently seen entry
+	 * @return the handle, -1 if the bucket is empty
+	 */
+	public int leastRecent() {
+		return (head == -1) ? -1 : slots[head * STRIDE + HANDLE];
+	}
+
+	/**
+	 * Returns the slot of the least recently seen entry, this is the starting point for
+	 * visiting the bucket in LRU order together with next
+	 * @return the slot, -1 if the bucket is empty
+	 */
+	public int first() {
+		return head;
+	}
+
+	/**
+	 * Returns the slot of the entry seen right after the one in the given slot
+	 * @param slot the current slot
+	 * @return the next slot, -1 if slot is the most recently seen
+	 */
+	public int next(int slot) {
+		return slots[slot * STRIDE + NEXT];
+	}
+
+	/**
+	 * Returns the handle stored in the given slot. Slots are in [0, size)
+	 * @param slot the slot
+	 * @return the handle
+	 */
+	public int handleAt(int slot) {
+		return slots[slot * STRIDE + HANDLE];
+	}
+
+	/**
+	 * Returns the number of entries in the bucket
+	 * @return the size of the bucket
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Tells if the bucket has reached k entries
+	 * @return true if full
+	 */
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * Removes the slot from the LRU list
+	 */
+	private void unlink(int slot) {
+		int prev = slots[slot * STRIDE + PREV];
+		int next = slots[slot * STRIDE + NEXT];
+		if (prev == -1)
+			head = next;
+		else
+			slots[prev * STRIDE + NEXT] = next;
+		if (next == -1)
+			tail = prev;
+		else
+			slots[next * STRIDE + PREV] = prev;
+	}
+
+	/**
+	 * Appends the slot at the end (most recently seen) of the LRU list
+	 */
+	private void linkLast(int slot) {
+		slots[slot * STRIDE + PREV] = tail;
+		slots[slot * STRIDE + NEXT] = -1;
+		if (tail == -1)
+			head = slot;
+		else
+			slots[tail * STRIDE + NEXT] = slot;
+		tail = slot;
+	}
+
+}
@@ -0,0 +1,362 @@
+package kademlia;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * This class measures how long the lookups take, instead of how many rounds they need:
+ * the same lookups (origin and target pairs) are timed on a virtual clock for every
+ * configuration of the parallelism alpha, of the size of the shortlist and of the policy
+ * of the lookup, with the RTTs of a LatencyModel. The origin sends every findNode itself
+ * (iterative lookup), so an RPC costs the RTT between the origin and the node queried,
+ * or the timeout if the node does not respond (it is offline, or the message is lost).
+ * The policies are:
+ * - rounds: as NodeDescriptor.nodeLookup, the lookup sends alpha RPCs at a time and waits
+ *   for all of them (a round lasts as the slowest RPC), until the closest node does not
+ *   improve, then queries at the same time all the nodes of the shortlist not queried yet,
+ *   again after every round in which some of them failed or closer nodes were found;
+ * - inflight: as the lookups of the actor mode, alpha RPCs are always in flight, and as soon
+ *   as one completes the closest node not queried yet is sent a new one.
+ * The lookups are verified against the true closest nodes online (as many as the size of
+ * the shortlist) with an XorIndex. The routing tables are not changed by these lookups, so
+ * all the configurations run on the same network, and given the seed the results do not
+ * depend on anything else
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class LatencyExperiment {
+
+	/* Private Fields */
+
+	private int lookups;
+	private String rtt;
+	private double timeout;
+	private double loss;
+	private int[] alphas;
+	private int[] shortlists;
+	private String[] policies;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty experiment (no lookups) with the default parameters
+	 */
+	public LatencyExperiment() {
+		lookups = 0;
+		rtt = "coords:10:300";
+		timeout = 1000;
+		loss = 0;
+		alphas = new int[] { 1, 2, 3, 5, 8 };
+		shortlists = null;
+		policies = new String[] { "rounds", "inflight" };
+	}
+
+	/* Methods */
+
+	/**
+	 * Applies a command line option of the experiment, if it is one of them:
+	 * --latency=L      the lookups of every configuration, 0 (default) means no experiment
+	 * --rtt=SPEC       the distribution of the RTTs (see LatencyModel, default coords:10:300)
+	 * --rpctimeout=T   the timeout of an RPC in milliseconds (default 1000)
+	 * --loss=P         the probability that an RPC gets no response (default 0)
+	 * --alphas=LIST    the values of alpha, comma separated (default 1,2,3,5,8)
+	 * --shortlists=LIST the sizes of the shortlist (default k)
+	 * --policies=LIST  rounds, inflight or both (default)
+	 * @param option the option, in the form "--name=value"
+	 * @return true if the option is one of the experiment, false otherwise
+	 */
+	public boolean applyOption(String option) {
+		if (!option.contains("="))
+			return false;
+		String name = option.substring(0, option.indexOf('='));
+		String value = option.substring(option.indexOf('=') + 1);
+		switch (name) {
+		case "--latency":
+			lookups = Integer.parseInt(value);
+			break;
+		case "--rtt":
+			new LatencyModel(value, timeout, 0);
+			rtt = value;
+			break;
+		case "--rpctimeout":
+			timeout = Double.parseDouble(value);
+			break;
+		case "--loss":
+			loss = Double.parseDouble(value);
+			if (loss < 0 || loss >= 1)
+				throw new IllegalArgumentException("the loss probability must be in [0, 1)");
+			break;
+		case "--alphas":
+			alphas = parsePositive(name, value);
+			break;
+		case "--shortlists":
+			shortlists = parsePositive(name, value);
+			break;
+		case "--policies":
+			policies = value.split(",");
+			for (String policy : policies) {
+				if (!policy.equals("rounds") && !policy.equals("inflight"))
+					throw new IllegalArgumentException("unknown lookup policy " + policy);
+			}
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of lookups of every configuration
+	 * @return the lookups, 0 if there is no experiment
+	 */
+	public int getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Runs the lookups of every configuration on the network of the coordinator, which must
+	 * be built, and displays a row of latency percentiles for each of them
+	 * @param coordinator the coordinator of the network
+	 */
+	public void run(Coordinator coordinator) {
+		NodeRegistry nodes = coordinator.getRegistry();
+		int m = (int) coordinator.getM(), k = (int) coordinator.getK();
+		LatencyModel model = new LatencyModel(rtt, timeout, coordinator.getSeed());
+		int[] sizes = (shortlists != null) ? shortlists : new int[] { k };
+
+		int[] online = new int[nodes.size()];
+		int count = 0;
+		for (int h = 0; h < online.length; h++) {
+			if (nodes.getNode(h).isAlive())
+				online[count++] = h;
+		}
+		if (count == 0)
+			throw new IllegalStateException("no node is online");
+		// The same lookups are replayed by every configuration
+		Random rand = new Random(coordinator.getSeed());
+		int[] origins = new int[lookups];
+		NodeId[] targets = new NodeId[lookups];
+		for (int i = 0; i < lookups; i++) {
+			origins[i] = online[rand.nextInt(count)];
+			targets[i] = new NodeId(rand.nextLong(), rand.nextLong(), rand.nextLong()).mask(m);
+		}
+		XorIndex index = new XorIndex(nodes, online, count);
+
+		System.out.println("=========== Lookup latency ===========");
+		System.out.println(lookups + " lookups per configuration, RTT " + model + " ms, timeout " + timeout
+				+ " ms, loss " + loss + ", " + count + " nodes online out of " + nodes.size());
+		System.out.printf("%-9s %5s %5s %9s %9s %9s %9s %9s %7s %9s %7s %7s%n", "policy", "alpha", "size", "mean(ms)",
+				"p50", "p90", "p99", "max", "RPCs", "timeouts", "exact%", "recall%");
+		for (String policy : policies) {
+			for (int size : sizes) {
+				for (int alpha : alphas) {
+					Timer timer = new Timer(nodes, model, k, size, alpha, policy.equals("rounds"), loss,
+							new Random(coordinator.getSeed()));
+					Histogram latencies = new Histogram();
+					int[] truth = new int[size];
+					long exact = 0, recalled = 0;
+					for (int i = 0; i < lookups; i++) {
+						latencies.record(Math.round(timer.lookup(origins[i], targets[i]) * 1000));
+						int closest = index.closest(targets[i], truth);
+						int found = timer.countFound(truth, closest);
+						recalled += found * 1000000L / Math.max(1, closest);
+						if (found == closest)
+							exact++;
+					}
+					System.out.printf(Locale.ROOT, "%-9s %5d %5d %9.1f %9.1f %9.1f %9.1f %9.1f %7.2f %9.3f %7.2f %7.2f%n",
+							policy, alpha, size, latencies.getMean() / 1000, latencies.getValueAtPercentile(50) / 1000.0,
+							latencies.getValueAtPercentile(90) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+							latencies.getMax() / 1000.0, (double) timer.rpcs / Math.max(1, lookups),
+							(double) timer.timeouts / Math.max(1, lookups), 100.0 * exact / Math.max(1, lookups),
+							recalled / 10000.0 / Math.max(1, lookups));
+				}
+			}
+		}
+		System.out.println("=========== End Lookup latency ===========");
+	}
+
+	/**
+	 * Parses a comma separated list of positive integers
+	 */
+	private static int[] parsePositive(String name, String value) {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+			if (values[i] < 1)
+				throw new IllegalArgumentException(name + " must contain positive values");
+		}
+		return values;
+	}
+
+	/**
+	 * The lookups of one configuration, timed on a virtual clock. The buffers are reused
+	 * by all the lookups
+	 */
+	private static final class Timer {
+		private final NodeRegistry nodes;
+		private final LatencyModel model;
+		private final int size, alpha;
+		private final boolean rounds;
+		private final double loss;
+		private final Random rand;
+		private final Node[] buffer, toQuery;
+		// The RPCs in flight of the inflight policy: the time they complete, if they get a
+		// response and the node queried
+		private final double[] completions;
+		private final boolean[] answered;
+		private final Node[] inFlight;
+		// The findNode RPCs are answered without updating the routing tables
+		private final Queue<Node> traveled;
+		private Shortlist kClosest;
+		long rpcs, timeouts;
+
+		Timer(NodeRegistry nodes, LatencyModel model, int k, int size, int alpha, boolean rounds, double loss,
+				Random rand) {
+			this.nodes = nodes;
+			this.model = model;
+			this.size = size;
+			this.alpha = alpha;
+			this.rounds = rounds;
+			this.loss = loss;
+			this.rand = rand;
+			buffer = new Node[k];
+			toQuery = new Node[Math.max(size, alpha)];
+			completions = new double[alpha];
+			answered = new boolean[alpha];
+			inFlight = new Node[alpha];
+			traveled = new ArrayDeque<>();
+		}
+
+		/**
+		 * Runs a lookup and returns the time it takes, in milliseconds
+		 */
+		double lookup(int origin, NodeId target) {
+			kClosest = new Shortlist(size, target);
+			kClosest.merge(buffer, findNode(nodes.get(origin), target));
+			return rounds ? roundsLookup(origin, target) : inFlightLookup(origin, target);
+		}
+
+		/**
+		 * The lookup of the rounds policy
+		 */
+		private double roundsLookup(int origin, NodeId target) {
+			double time = 0;
+			kClosest.closestImproved();
+			boolean improved;
+			do {
+				int count = kClosest.nextUnqueried(alpha, toQuery);
+				if (count == 0)
+					break;
+				time += round(origin, target, count);
+				improved = kClosest.closestImproved();
+			} while (improved);
+			// The last rounds query the nodes of the shortlist not queried yet, until all of them responded
+			int count;
+			while ((count = kClosest.nextUnqueried(toQuery.length, toQuery)) > 0)
+				time += round(origin, target, count);
+			return time;
+		}
+
+		/**
+		 * Queries the nodes in toQuery at the same time, and returns the duration of the round
+		 */
+		private double round(int origin, NodeId target, int count) {
+			double slowest = 0;
+			for (int i = 0; i < count; i++)
+				slowest = Math.max(slowest, query(origin, toQuery[i], target));
+			return slowest;
+		}
+
+		/**
+		 * The lookup of the inflight policy
+		 */
+		private double inFlightLookup(int origin, NodeId target) {
+			double now = 0;
+			int pending = 0;
+			while (true) {
+				int next;
+				while (pending < alpha && (next = kClosest.pollUnqueried()) != -1) {
+					Node to = kClosest.get(next);
+					// The response is merged when it arrives, a missing one when the timeout expires
+					answered[pending] = responds(to);
+					completions[pending] = now + (answered[pending] ? model.rtt(origin, to.getHandle()) : model.getTimeout());
+					inFlight[pending++] = to;
+				}
+				if (pending == 0)
+					return now;
+				// The first RPC to complete (alpha is small, a scan is enough)
+				int first = 0;
+				for (int i = 1; i < pending; i++) {
+					if (completions[i] < completions[first])
+						first = i;
+				}
+				now = completions[first];
+				Node to = inFlight[first];
+				boolean responded = answered[first];
+				pending--;
+				completions[first] = completions[pending];
+				answered[first] = answered[pending];
+				inFlight[first] = inFlight[pending];
+				rpcs++;
+				if (responded) {
+					kClosest.markResponded(to);
+					kClosest.merge(buffer, findNode(nodes.get(to.getHandle()), target));
+				} else {
+					timeouts++;
+					kClosest.markFailed(to);
+				}
+			}
+		}
+
+		/**
+		 * Sends a findNode and merges its response, returning the time it takes
+		 */
+		private double query(int origin, Node to, NodeId target) {
+			rpcs++;
+			if (!responds(to)) {
+				timeouts++;
+				kClosest.markFailed(to);
+				return model.getTimeout();
+			}
+			kClosest.markResponded(to);
+			kClosest.merge(buffer, findNode(nodes.get(to.getHandle()), target));
+			return model.rtt(origin, to.getHandle());
+		}
+
+		/**
+		 * Tells if the node answers the RPC: it must be online, and the message not lost
+		 */
+		private boolean responds(Node to) {
+			return to.isAlive() && (loss == 0 || rand.nextDouble() >= loss);
+		}
+
+		/**
+		 * Asks the node its closest entries to the target, without changing any routing table
+		 */
+		private int findNode(NodeDescriptor node, NodeId target) {
+			traveled.clear();
+			return node.findNode(target, traveled, buffer);
+		}
+
+		/**
+		 * Counts how many of the true closest nodes the last lookup found
+		 */
+		int countFound(int[] truth, int closest) {
+			int found = 0;
+			for (Node node : kClosest.toList()) {
+				for (int c = 0; c < closest; c++) {
+					if (truth[c] == node.getHandle()) {
+						found++;
+						break;
+					}
+				}
+			}
+			return found;
+		}
+	}
+
+}
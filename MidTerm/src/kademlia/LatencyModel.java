@@ -0,0 +1,144 @@
+package kademlia;
+
+/**
+ * This class models the round trip times of the links between the nodes, for the lookups
+ * timed on a virtual clock. The RTT of a link is symmetric and always the same, but it is
+ * not stored anywhere: it is computed from a hash of the two handles and of the seed, so
+ * the model costs no memory and also covers the nodes joining later. The RTTs are drawn
+ * from one of these distributions, given as a specification string (times in milliseconds):
+ * - const:R               every link has RTT R;
+ * - uniform:MIN:MAX       uniform in [MIN, MAX);
+ * - lognormal:MEDIAN:S    lognormal with the given median and shape S (heavy tailed);
+ * - coords:MIN:MAX        every node is a point of the unit square, and the RTT grows
+ *                         linearly with the distance, from MIN (same point) to MAX (opposite
+ *                         corners), so the RTTs respect the triangle inequality.
+ * A node that does not respond costs the timeout instead of the RTT
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class LatencyModel {
+
+	/* Private Fields */
+
+	private static final int CONSTANT = 0, UNIFORM = 1, LOGNORMAL = 2, COORDINATES = 3;
+
+	private final String specification;
+	private final int kind;
+	private final double a, b;
+	private final long seed;
+	private final double timeout;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it parses the specification of the distribution
+	 * @param specification the distribution of the RTTs, see the description of the class
+	 * @param timeout the time after which an RPC without response is given up, in milliseconds
+	 * @param seed the seed of the RTTs
+	 */
+	public LatencyModel(String specification, double timeout, long seed) {
+		this.specification = specification;
+		this.timeout = timeout;
+		this.seed = seed;
+		String[] parts = specification.split(":");
+		switch (parts[0]) {
+		case "const":
+			kind = CONSTANT;
+			break;
+		case "uniform":
+			kind = UNIFORM;
+			break;
+		case "lognormal":
+			kind = LOGNORMAL;
+			break;
+		case "coords":
+			kind = COORDINATES;
+			break;
+		default:
+			throw new IllegalArgumentException("unknown RTT distribution " + specification);
+		}
+		if (parts.length != ((kind == CONSTANT) ? 2 : 3))
+			throw new IllegalArgumentException("wrong number of parameters in " + specification);
+		a = Double.parseDouble(parts[1]);
+		b = (kind == CONSTANT) ? a : Double.parseDouble(parts[2]);
+		if (a < 0 || b < 0 || (kind != LOGNORMAL && b < a))
+			throw new IllegalArgumentException("wrong parameters in " + specification);
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the round trip time of the link between two nodes
+	 * @param from the handle of a node
+	 * @param to the handle of the other node
+	 * @return the RTT in milliseconds
+	 */
+	public double rtt(int from, int to) {
+		if (from == to)
+			return 0;
+		switch (kind) {
+		case CONSTANT:
+			return a;
+		case UNIFORM:
+			return a + (b - a) * uniform(link(from, to));
+		case LOGNORMAL:
+			return a * Math.exp(b * gaussian(link(from, to)));
+		default:
+			double dx = uniform(mix(seed ^ (2L * from))) - uniform(mix(seed ^ (2L * to)));
+			double dy = uniform(mix(seed ^ (2L * from + 1))) - uniform(mix(seed ^ (2L * to + 1)));
+			return a + (b - a) * Math.sqrt((dx * dx + dy * dy) / 2);
+		}
+	}
+
+	/**
+	 * Returns the time after which an RPC without response is given up
+	 * @return the timeout in milliseconds
+	 */
+	public double getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns the specification of the distribution of the RTTs
+	 * @return the specification
+	 */
+	@Override
+	public String toString() {
+		return specification;
+	}
+
+	/**
+	 * Returns the hash of the link, the same in both directions
+	 */
+	private long link(int from, int to) {
+		long low = Math.min(from, to), high = Math.max(from, to);
+		return mix(seed ^ mix((high << 32) | low));
+	}
+
+	/**
+	 * The finalizer of SplitMix64, it spreads every bit of the input over the output
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns a number uniform in [0, 1) from the 53 high bits of the hash
+	 */
+	private static double uniform(long hash) {
+		return (hash >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Returns a standard gaussian from the hash, with the Box-Muller transform
+	 */
+	private static double gaussian(long hash) {
+		double u = 1 - uniform(hash);
+		double v = uniform(mix(hash));
+		return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+	}
+
+}
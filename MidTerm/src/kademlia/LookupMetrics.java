@@ -0,0 +1,268 @@
+package kademlia;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the metrics of a simulation in constant memory: for every lookup
+ * the rounds (the recursive depth), the RPCs issued, the nodes that responded and the
+ * number of times the closest known node improved (the convergence of the shortlist) are
+ * recorded in histograms, and the routing table events (insertions, refreshes of a known
+ * node, pings of the least recently seen node, evictions, removals of nodes that did not
+ * respond) in counters, together with the RPCs that timed out. The edges of the
+ * routing tables are also counted by bucket index (the highest bit of the XOR distance
+ * between the two nodes), so the occupancy of the buckets is known at any time without
+ * visiting the routing tables.
+ * The histograms are striped: every thread records in the stripe chosen by its id, so
+ * threads rarely share the same counters, and the stripes are added together when the
+ * metrics are read
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class LookupMetrics {
+
+	/* Public and Static Fields */
+	public static final int DEPTH = 0;
+	public static final int RPCS = 1;
+	public static final int CONTACTED = 2;
+	public static final int IMPROVEMENTS = 3;
+	public static final String[] NAMES = { "Lookup rounds", "RPCs per lookup", "Nodes contacted per lookup",
+			"Closest node improvements per lookup" };
+
+	/* Private Fields */
+
+	private final Histogram[][] stripes;
+	private final int mask;
+	private final LongAdder inserts, refreshes, pings, evictions, removals, timeouts;
+	// The edges currently in the routing tables, by bucket index
+	private final LongAdder[] bucketEdges;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds empty metrics
+	 */
+	public LookupMetrics() {
+		int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+		stripes = new Histogram[size][NAMES.length];
+		for (Histogram[] stripe : stripes) {
+			for (int h = 0; h < NAMES.length; h++)
+				stripe[h] = new Histogram();
+		}
+		mask = size - 1;
+		inserts = new LongAdder();
+		refreshes = new LongAdder();
+		pings = new LongAdder();
+		evictions = new LongAdder();
+		removals = new LongAdder();
+		timeouts = new LongAdder();
+		bucketEdges = new LongAdder[NodeId.MAX_BITS];
+		for (int i = 0; i < bucketEdges.length; i++)
+			bucketEdges[i] = new LongAdder();
+	}
+
+	/* Methods */
+
+	/**
+	 * Records a completed lookup
+	 * @param depth the rounds of the lookup (in actor mode, the hops of the farthest node)
+	 * @param rpcs the findNode RPCs issued
+	 * @param contacted the nodes that responded
+	 * @param improvements the number of times the closest known node changed
+	 */
+	public void recordLookup(long depth, long rpcs, long contacted, long improvements) {
+		Histogram[] stripe = stripes[(int) mix(Thread.currentThread().getId()) & mask];
+		stripe[DEPTH].record(depth);
+		stripe[RPCS].record(rpcs);
+		stripe[CONTACTED].record(contacted);
+		stripe[IMPROVEMENTS].record(improvements);
+	}
+
+	/**
+	 * Records the insertion of a new node in a routing table
+	 * @param index the bucket index of the new node
+	 */
+	public void recordInsert(int index) {
+		inserts.increment();
+		bucketEdges[index].increment();
+	}
+
+	/**
+	 * Records a node already present that is moved to the tail of its bucket
+	 */
+	public void recordRefresh() {
+		refreshes.increment();
+	}
+
+	/**
+	 * Records the ping of the least recently seen node of a full bucket
+	 */
+	public void recordPing() {
+		pings.increment();
+	}
+
+	/**
+	 * Records the eviction of a node that did not respond to the ping, replaced by a new node
+	 * @param evictedIndex the bucket index of the evicted node
+	 * @param index the bucket index of the new node (different from evictedIndex only when
+	 * a bucket of a tree routing table covers more indexes)
+	 */
+	public void recordEviction(int evictedIndex, int index) {
+		evictions.increment();
+		bucketEdges[evictedIndex].decrement();
+		bucketEdges[index].increment();
+	}
+
+	/**
+	 * Records the removal of a node that did not respond, without a replacement
+	 * @param index the bucket index of the removed node
+	 */
+	public void recordRemoval(int index) {
+		removals.increment();
+		bucketEdges[index].decrement();
+	}
+
+	/**
+	 * Records an RPC that got no response, because the node queried is offline
+	 */
+	public void recordTimeout() {
+		timeouts.increment();
+	}
+
+	/**
+	 * Returns the histogram of one of the lookup metrics, merging all the stripes
+	 * @param metric one of DEPTH, RPCS, CONTACTED and IMPROVEMENTS
+	 * @return a new histogram with all the recorded values
+	 */
+	public Histogram getHistogram(int metric) {
+		Histogram merged = new Histogram();
+		for (Histogram[] stripe : stripes)
+			merged.add(stripe[metric]);
+		return merged;
+	}
+
+	/**
+	 * Returns the number of completed lookups
+	 * @return the number of lookups
+	 */
+	public long getLookups() {
+		long lookups = 0;
+		for (Histogram[] stripe : stripes)
+			lookups += stripe[DEPTH].getCount();
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of insertions in the routing tables
+	 * @return the insertions
+	 */
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	/**
+	 * Returns the number of refreshes of nodes already in the routing tables
+	 * @return the refreshes
+	 */
+	public long getRefreshes() {
+		return refreshes.sum();
+	}
+
+	/**
+	 * Returns the number of pings of least recently seen nodes
+	 * @return the pings
+	 */
+	public long getPings() {
+		return pings.sum();
+	}
+
+	/**
+	 * Returns the number of evictions from the routing tables
+	 * @return the evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of removals from the routing tables
+	 * @return the removals
+	 */
+	public long getRemovals() {
+		return removals.sum();
+	}
+
+	/**
+	 * Returns the number of RPCs that timed out
+	 * @return the timeouts
+	 */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/**
+	 * Returns the number of edges in the routing tables, for every bucket index
+	 * @param m the number of bits of the identifiers
+	 * @return an array where position i contains the edges of the buckets with index i
+	 */
+	public long[] getBucketEdges(int m) {
+		long[] edges = new long[m];
+		for (int i = 0; i < m; i++)
+			edges[i] = bucketEdges[i].sum();
+		return edges;
+	}
+
+	/**
+	 * Returns the number of bytes written by writeTo
+	 * @return the size of the metrics in binary form
+	 */
+	public int serializedSize() {
+		int size = 6 * 8 + 4 + bucketEdges.length * 8;
+		for (int metric = 0; metric < NAMES.length; metric++)
+			size += getHistogram(metric).serializedSize();
+		return size;
+	}
+
+	/**
+	 * Writes the metrics to the buffer: the counters, the edges by bucket index and the
+	 * merged histograms. The metrics must not change while they are written
+	 * @param buffer the buffer, with at least serializedSize() bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putLong(getInserts()).putLong(getRefreshes()).putLong(getPings()).putLong(getEvictions());
+		buffer.putLong(getRemovals()).putLong(getTimeouts());
+		buffer.putInt(bucketEdges.length);
+		for (LongAdder edges : bucketEdges)
+			buffer.putLong(edges.sum());
+		for (int metric = 0; metric < NAMES.length; metric++)
+			getHistogram(metric).writeTo(buffer);
+	}
+
+	/**
+	 * Adds to these metrics the ones written by writeTo
+	 * @param buffer the buffer, positioned at the start of the metrics
+	 */
+	public void readFrom(ByteBuffer buffer) {
+		inserts.add(buffer.getLong());
+		refreshes.add(buffer.getLong());
+		pings.add(buffer.getLong());
+		evictions.add(buffer.getLong());
+		removals.add(buffer.getLong());
+		timeouts.add(buffer.getLong());
+		int indexes = buffer.getInt();
+		for (int i = 0; i < indexes; i++)
+			bucketEdges[i].add(buffer.getLong());
+		for (int metric = 0; metric < NAMES.length; metric++)
+			stripes[0][metric].readFrom(buffer);
+	}
+
+	/**
+	 * Spreads the bits of the thread id, so that consecutive ids use different stripes
+	 */
+	private static long mix(long id) {
+		id *= 0x9E3779B97F4A7C15L;
+		return id ^ (id >>> 32);
+	}
+
+}
@@ -0,0 +1,237 @@
+package kademlia;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Class that only interacts with the user to obtain the system wide parameters
+ * and launches the coordinator lifecycle.
+ * The parameters can also be given on the command line, as "m n k [options]", where
+ * the options are:
+ * --tree         the routing tables are lazily split trees instead of m flat buckets
+ * --threads=T    builds the network with T worker threads (0 means one per core)
+ * --seed=S       seed of the simulation
+ * --quiet        does not print a line for every generated node
+ * --actors=C     actor mode, with C joins in flight at the same time
+ * --alpha=A      the findNode RPCs sent in parallel by every lookup (default 3)
+ * --idhash=H     generates all the nodes in a batch, in parallel, before the joins, with
+ *                the hash sha1 or splitmix (see IdGenerator)
+ * --ids=D        the distribution of the identifiers of the batch: uniform (default) or
+ *                clustered:C:B[:S], the B highest bits from one of C centers
+ * --udp=S        the RPCs are UDP datagrams on the loopback interface, served by S
+ *                selector threads (not in actor mode)
+ * --dump=F       format of the network dump: csv (default), binary (CSR) or none
+ * --analytics    computes degree distributions, clustering, diameter and average
+ *                path length of the network at the end of the statistics
+ * --anf=B        estimates the neighbourhood function, average distance and effective
+ *                diameter with HyperANF, with 2^B registers per node (B in [4, 16])
+ * --snapshots=N  every N joins, writes a snapshot of the growing topology (edges, bucket
+ *                occupancy, lookup depths, in degree spread) to networkSnapshots.jsonl
+ * --checkpoint=F writes the checkpoint of the network to F, after it is built
+ * --restore=F    restores the network from the checkpoint F instead of building it from
+ *                scratch, joining more nodes if n is bigger than the nodes in F
+ * --lookups=L    after the network is built, replays a workload of L lookups and displays
+ *                its throughput and accuracy (see Workload for the other options, such as
+ *                --origins, --targets and --zipf)
+ * --churn=D      after the network is built (and before the workload), simulates D
+ *                virtual seconds of churn (nodes
+ *                leaving, crashing and arriving) with the maintenance of the routing
+ *                tables, see ChurnSimulation for the other options, such as --session
+ * --latency=L    after the network is built (and the churn), times L lookups on a virtual
+ *                clock for every value of alpha and of the other parameters of the lookups,
+ *                see LatencyExperiment for the other options, such as --rtt and --alphas
+ * --puts=P       after the lookups, stores P keys and reads them with value lookups on a
+ *                virtual clock, with and without path caching, see ValueWorkload for the
+ *                other options, such as --gets and --republish
+ * --speedup      builds the network both sequentially and with the given threads,
+ *                with the same seed, and compares time and topology statistics
+ * With "--sweep ..." many simulations are run at the same time instead, and their
+ * statistics are collected in a table (see Sweep for its arguments)
+ * 
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Main {
+
+	public static void main(String[] args) {
+		
+		long m = 0, n = 0, k = 0;
+		
+		if(args.length > 0 && args[0].equals("--sweep")) {
+			try {
+				Sweep.fromArguments(Arrays.copyOfRange(args, 1, args.length)).run();
+			} catch (IOException e) {
+				System.err.println("ERROR: cannot read the configurations: " + e.getMessage());
+				System.exit(-1);
+			}
+			return;
+		}
+		
+		if(args.length >= 3) {
+			m = Integer.parseInt(args[0]);
+			n = Integer.parseInt(args[1]);
+			k = Integer.parseInt(args[2]);
+		} else {
+			try(Scanner scanner = new Scanner(System.in);) {
+				System.out.println("Please insert m (number of bits in the identifier): "); 
+				m = Long.parseLong(scanner.nextLine()); 
+				System.out.println("Please insert n (number of nodes that will join the network): "); 
+				n = Long.parseLong(scanner.nextLine());
+				System.out.println("Please insert k (maximum size of the routing tables): ");
+				k = Long.parseLong(scanner.nextLine()); 
+			} catch (NumberFormatException e) {
+				 System.err.println("ERROR: Unrecognized format"); 
+				 System.exit(-1); 
+			}
+		}
+
+		if(m <= 0 || k <= 0 || n <= 0 || m > NodeId.MAX_BITS)
+			throw new IllegalArgumentException("parameter out of range");
+
+		Coordinator coordinator = new Coordinator(n, m, k);
+		Workload workload = new Workload();
+		ChurnSimulation churn = new ChurnSimulation();
+		LatencyExperiment latency = new LatencyExperiment();
+		ValueWorkload values = new ValueWorkload();
+		List<String> options = new ArrayList<>();
+		boolean speedup = false;
+		for(int i = 3; i < args.length; i++) {
+			if(args[i].equals("--speedup"))
+				speedup = true;
+			else if(!workload.applyOption(args[i]) && !churn.applyOption(args[i]) && !latency.applyOption(args[i])
+					&& !values.applyOption(args[i]))
+				options.add(args[i]);
+		}
+		if(churn.getDuration() > 0 && options.stream().anyMatch(option -> option.startsWith("--actors"))) {
+			System.err.println("ERROR: the churn simulation is not available in actor mode");
+			System.exit(-1);
+		}
+		if(options.stream().anyMatch(option -> option.startsWith("--udp"))
+				&& options.stream().anyMatch(option -> option.startsWith("--actors"))) {
+			System.err.println("ERROR: the UDP transport is not available in actor mode");
+			System.exit(-1);
+		}
+		for(String option : options)
+			applyOption(coordinator, option);
+		
+		if(speedup) {
+			// I build the same network also sequentially, with the same options and seed
+			Coordinator sequential = new Coordinator(n, m, k);
+			for(String option : options)
+				applyOption(sequential, option);
+			sequential.setThreads(1);
+			sequential.setSeed(coordinator.getSeed());
+			compareBuilds(sequential, coordinator);
+			sequential.close();
+		} else {
+			coordinator.createNetwork();
+			if(churn.getDuration() > 0)
+				churn.run(coordinator);
+			if(latency.getLookups() > 0)
+				latency.run(coordinator);
+			if(workload.getLookups() > 0) {
+				try {
+					workload.run(coordinator);
+				} catch (IOException e) {
+					System.err.println("ERROR: cannot read the targets: " + e.getMessage());
+					System.exit(-1);
+				}
+			}
+			if(values.getPuts() > 0)
+				values.run(coordinator);
+		}
+		coordinator.close();
+
+	}
+	
+	/**
+	 * Builds the network with both coordinators, and prints the time needed and the main
+	 * statistics of the two resulting topologies
+	 * @param sequential the coordinator building the network sequentially
+	 * @param parallel the coordinator building the network in parallel
+	 */
+	private static void compareBuilds(Coordinator sequential, Coordinator parallel) {
+		sequential.setVerbose(false);
+		parallel.setVerbose(false);
+		sequential.buildNetwork();
+		parallel.buildNetwork();
+		
+		System.out.println("===========================================================================");
+		System.out.println("Seed of the simulation = " + parallel.getSeed());
+		System.out.printf("%-24s %15s %15s%n", "", "sequential", parallel.getThreads() + " threads");
+		System.out.printf("%-24s %15.3f %15.3f%n", "Build time (seconds)", 
+				sequential.getBuildMillis() / 1000.0, parallel.getBuildMillis() / 1000.0);
+		System.out.printf("%-24s %15d %15d%n", "Total edges", sequential.getTotalEdges(), parallel.getTotalEdges());
+		System.out.printf("%-24s %15.3f %15.3f%n", "Average recursive depth", 
+				sequential.getAverageDepth(), parallel.getAverageDepth());
+		System.out.printf("%-24s %15d %15d%n", "Max in degree", sequential.getMaxInDegree(), parallel.getMaxInDegree());
+		System.out.printf("Speedup = %.2f%n", (double) sequential.getBuildMillis() / Math.max(1, parallel.getBuildMillis()));
+	}
+	
+	/**
+	 * Applies a command line option to the coordinator
+	 * @param coordinator the coordinator to configure
+	 * @param option the option, in the form "--name" or "--name=value"
+	 */
+	static void applyOption(Coordinator coordinator, String option) {
+		String name = option, value = null;
+		if(option.contains("=")) {
+			name = option.substring(0, option.indexOf('='));
+			value = option.substring(option.indexOf('=') + 1);
+		}
+		switch(name) {
+		case "--tree":
+			coordinator.setTreeRoutingTables(true);
+			break;
+		case "--threads":
+			coordinator.setThreads(Integer.parseInt(value));
+			break;
+		case "--seed":
+			coordinator.setSeed(Long.parseLong(value));
+			break;
+		case "--actors":
+			coordinator.setActors(Integer.parseInt(value));
+			break;
+		case "--alpha":
+			coordinator.setAlpha(Integer.parseInt(value));
+			break;
+		case "--idhash":
+			coordinator.setIdHash(value);
+			break;
+		case "--ids":
+			coordinator.setIdDistribution(value);
+			break;
+		case "--udp":
+			coordinator.setTransport(Integer.parseInt(value));
+			break;
+		case "--dump":
+			coordinator.setDumpFormat(value);
+			break;
+		case "--analytics":
+			coordinator.setAnalytics(true);
+			break;
+		case "--anf":
+			coordinator.setApproximateAnalytics(Integer.parseInt(value));
+			break;
+		case "--snapshots":
+			coordinator.setSnapshots(Integer.parseInt(value));
+			break;
+		case "--checkpoint":
+			coordinator.setCheckpoint(Paths.get(value));
+			break;
+		case "--restore":
+			coordinator.setRestore(Paths.get(value));
+			break;
+		case "--quiet":
+			coordinator.setVerbose(false);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown option " + option);
+		}
+	}
+
+}
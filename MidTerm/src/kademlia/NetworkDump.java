@@ -0,0 +1,203 @@
+package kademlia;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes the topology of the network (the edges of all the routing tables)
+ * to a file. Two formats are supported: the csv one ("x,y" for every edge, with decimal
+ * identifiers), kept for compatibility with the tools reading it, and a compact binary
+ * CSR (compressed sparse row) one, which is much faster to write and to read.
+ * The binary file is little endian, and it is made of:
+ * - a header of 32 bytes: the magic number 0x4B414443 ("KADC"), the version (1), m,
+ *   the number of nodes n (ints), the number of edges e (long), two ints set to 0;
+ * - n + 1 offsets (longs): the edges of the node with handle h are in [offset[h], offset[h + 1]);
+ * - e targets (ints): the handle of the node at the end of every edge, in LRU order;
+ * - n identifiers, three longs each (bits [0, 64), [64, 128) and [128, 160)).
+ * The binary dump is streamed straight from the routing tables through direct buffers
+ * and positional writes on a FileChannel, and the nodes can be partitioned among threads,
+ * each one writing its own region of the file
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class NetworkDump {
+
+	/* Public and Static Fields */
+	public static final int MAGIC = 0x4B414443;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 32;
+
+	/* Private Fields */
+
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private final NodeRegistry registry;
+	private final int m;
+	private final int threads;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the dump
+	 * @param registry the registry of the nodes of the network
+	 * @param m the number of bits of the identifiers
+	 * @param threads the number of threads writing the binary dump
+	 */
+	public NetworkDump(NodeRegistry registry, int m, int threads) {
+		this.registry = registry;
+		this.m = m;
+		this.threads = Math.max(1, threads);
+	}
+
+	/* Methods */
+
+	/**
+	 * Writes the network in csv format, streaming the edges of one node at a time
+	 * @param path the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeCSV(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+			for (int h = 0; h < registry.size(); h++)
+				registry.get(h).dumpToFile(writer);
+		}
+	}
+
+	/**
+	 * Writes the network in the binary CSR format. The network must not change while it
+	 * is written
+	 * @param path the file to write
+	 * @return the number of bytes written
+	 * @throws IOException if the file cannot be written
+	 */
+	public long writeBinary(Path path) throws IOException {
+		int n = registry.size();
+		// First pass: the offsets of the edges of every node
+		long[] offsets = new long[n + 1];
+		for (int h = 0; h < n; h++)
+			offsets[h + 1] = offsets[h] + registry.get(h).exposeNumberOfEdges();
+		long edges = offsets[n];
+		long offsetsStart = HEADER_BYTES;
+		long targetsStart = offsetsStart + 8L * (n + 1);
+		long idsStart = targetsStart + 4L * edges;
+		long size = idsStart + 24L * n;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(m).putInt(n).putLong(edges).putInt(0).putInt(0);
+			header.flip();
+			writeFully(channel, header, 0);
+
+			// Second pass: every partition writes its offsets, targets and identifiers
+			int partitions = Math.min(threads, Math.max(1, n));
+			if (partitions == 1) {
+				writePartition(channel, offsets, 0, n, offsetsStart, targetsStart, idsStart);
+			} else {
+				ExecutorService pool = Executors.newFixedThreadPool(partitions);
+				try {
+					List<Future<?>> futures = new ArrayList<>();
+					for (int p = 0; p < partitions; p++) {
+						int from = (int) ((long) n * p / partitions);
+						int to = (int) ((long) n * (p + 1) / partitions);
+						futures.add(pool.submit(() -> {
+							writePartition(channel, offsets, from, to, offsetsStart, targetsStart, idsStart);
+							return null;
+						}));
+					}
+					for (Future<?> future : futures)
+						future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while writing the dump", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IllegalStateException("a partition of the dump failed", e.getCause());
+				} finally {
+					pool.shutdown();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the offsets, targets and identifiers of the nodes with handles in [from, to)
+	 */
+	private void writePartition(FileChannel channel, long[] offsets, int from, int to,
+			long offsetsStart, long targetsStart, long idsStart) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+		// The offsets (the last partition also writes offset[n])
+		int last = (to == registry.size()) ? to + 1 : to;
+		long position = offsetsStart + 8L * from;
+		for (int h = from; h < last; h++) {
+			if (buffer.remaining() < 8)
+				position = flush(channel, buffer, position);
+			buffer.putLong(offsets[h]);
+		}
+		flush(channel, buffer, position);
+
+		// The targets, one routing table at a time
+		int[] neighbours = new int[64];
+		position = targetsStart + 4L * offsets[from];
+		for (int h = from; h < to; h++) {
+			int degree = (int) (offsets[h + 1] - offsets[h]);
+			if (neighbours.length < degree)
+				neighbours = new int[Math.max(degree, neighbours.length * 2)];
+			if (registry.get(h).exposeNeighbours(neighbours, 0) != degree)
+				throw new IllegalStateException("the routing table of node " + h + " changed during the dump");
+			for (int i = 0; i < degree; i++) {
+				if (buffer.remaining() < 4)
+					position = flush(channel, buffer, position);
+				buffer.putInt(neighbours[i]);
+			}
+		}
+		flush(channel, buffer, position);
+
+		// The identifiers
+		position = idsStart + 24L * from;
+		for (int h = from; h < to; h++) {
+			if (buffer.remaining() < 24)
+				position = flush(channel, buffer, position);
+			NodeId id = registry.getId(h);
+			buffer.putLong(id.word(0)).putLong(id.word(1)).putLong(id.word(2));
+		}
+		flush(channel, buffer, position);
+	}
+
+	/**
+	 * Writes the content of the buffer at the given position of the file, and clears it
+	 * @return the position following the written bytes
+	 */
+	static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		long next = position + buffer.remaining();
+		writeFully(channel, buffer, position);
+		buffer.clear();
+		return next;
+	}
+
+	/**
+	 * Writes all the remaining bytes of the buffer starting from the given position of the file
+	 */
+	static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+}
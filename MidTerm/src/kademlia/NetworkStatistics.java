@@ -0,0 +1,119 @@
+package kademlia;
+
+import java.util.Locale;
+
+/**
+ * This class holds the main statistics of a network built by a Coordinator (the same
+ * ones displayed by dumpStatistics), so that the results of many simulations can be
+ * collected and displayed together, one row per simulation
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class NetworkStatistics {
+
+	/* Private Fields */
+
+	private final long m, n, k;
+	private final long seed;
+	private final int collisions;
+	private final long buildMillis;
+	private final long rpcs;
+	private final long totalEdges;
+	private final long expectedEdges;
+	private final long maxTheoreticalEdges;
+	private final long maxDepth;
+	private final double averageDepth;
+	private final long maxInDegree;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the statistics
+	 * @param m the number of bits of the identifiers
+	 * @param n the number of nodes
+	 * @param k the size of the buckets
+	 * @param seed the seed of the simulation
+	 * @param collisions the number of collisions of the identifiers
+	 * @param buildMillis the milliseconds needed to build the network
+	 * @param rpcs the number of RPCs sent while building the network
+	 * @param totalEdges the number of edges of the network
+	 * @param expectedEdges the estimate of the number of edges
+	 * @param maxTheoreticalEdges the number of edges with full routing tables
+	 * @param maxDepth the maximum recursive depth reached by a lookup
+	 * @param averageDepth the average recursive depth of the lookups
+	 * @param maxInDegree the maximum in degree of a node
+	 */
+	public NetworkStatistics(long m, long n, long k, long seed, int collisions, long buildMillis, long rpcs,
+			long totalEdges, long expectedEdges, long maxTheoreticalEdges, long maxDepth, double averageDepth,
+			long maxInDegree) {
+		this.m = m;
+		this.n = n;
+		this.k = k;
+		this.seed = seed;
+		this.collisions = collisions;
+		this.buildMillis = buildMillis;
+		this.rpcs = rpcs;
+		this.totalEdges = totalEdges;
+		this.expectedEdges = expectedEdges;
+		this.maxTheoreticalEdges = maxTheoreticalEdges;
+		this.maxDepth = maxDepth;
+		this.averageDepth = averageDepth;
+		this.maxInDegree = maxInDegree;
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the header of the table built with toRow
+	 * @return the header
+	 */
+	public static String header() {
+		return String.format(Locale.ROOT, "%4s %9s %4s %20s %6s %10s %12s %12s %12s %12s %6s %9s %8s",
+				"m", "n", "k", "seed", "coll", "build (s)", "RPCs", "edges", "expected", "max edges",
+				"depth", "avg depth", "max in");
+	}
+
+	/**
+	 * Returns the statistics as a row of a table, aligned with header
+	 * @return the row
+	 */
+	public String toRow() {
+		return String.format(Locale.ROOT, "%4d %9d %4d %20d %6d %10.3f %12d %12d %12d %12d %6d %9.2f %8d",
+				m, n, k, seed, collisions, buildMillis / 1000.0, rpcs, totalEdges, expectedEdges,
+				maxTheoreticalEdges, maxDepth, averageDepth, maxInDegree);
+	}
+
+	/**
+	 * Returns the milliseconds needed to build the network
+	 * @return the build time
+	 */
+	public long getBuildMillis() {
+		return buildMillis;
+	}
+
+	/**
+	 * Returns the seed of the simulation
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the number of edges of the network
+	 * @return the number of edges
+	 */
+	public long getTotalEdges() {
+		return totalEdges;
+	}
+
+	/**
+	 * Returns the average recursive depth of the lookups
+	 * @return the average depth
+	 */
+	public double getAverageDepth() {
+		return averageDepth;
+	}
+
+}
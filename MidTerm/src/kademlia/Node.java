@@ -0,0 +1,127 @@
+package kademlia;
+
+/**
+ * This class models the Node entity, which is represented by an identifier (m
+ * bits long NodeId), an IP address and a UDP port on which it is listening for
+ * messages.
+ * Strings are used instead of InetAddresses in order to avoid the UnknownHostException
+ * 
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Node {
+
+	/* Instance Variables*/
+	
+	private NodeId identifier;
+	private String ipAddress;
+	private int udpPort;
+	private int handle;
+	// Written by the churn simulation, read by the nodes pinging this one
+	private volatile boolean alive;
+	
+	/* Constructors */
+
+	/**
+	 * Constructor
+	 * @param id the integer identifier
+	 * @param address the IP address string
+	 */
+	public Node(NodeId id, String address) {
+		ipAddress = address;
+		identifier = id;
+		udpPort = 0;
+		handle = -1;
+		alive = true;
+	}
+
+
+	/* Getter and setter methods */
+	
+	/**
+	 * Getter method for the Identifier Field
+	 * @return the id of the Node
+	 */
+	public NodeId getId() {
+		return identifier;
+	}
+
+	/**
+	 * Getter method for the handle given to the node by the coordinator registry
+	 * @return the handle of the Node, -1 if not registered
+	 */
+	public int getHandle() {
+		return handle;
+	}
+
+	/**
+	 * Setter method for the handle, used by the registry when the node joins
+	 * @param handle the handle of the Node
+	 */
+	public void setHandle(int handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * Setter method for the UDP port, used by the UDP transport when the node gets its endpoint
+	 * @param port the UDP port where the node is listening for messages
+	 */
+	public void setUdpPort(int port) {
+		udpPort = port;
+	}
+
+	/**
+	 * Tells if the node is online, nodes are online unless the churn simulation
+	 * takes them offline
+	 * @return true if the node is online
+	 */
+	public boolean isAlive() {
+		return alive;
+	}
+
+	/**
+	 * Setter method for the liveness of the node, used by the churn simulation
+	 * @param alive true if the node goes online, false if it leaves or crashes
+	 */
+	public void setAlive(boolean alive) {
+		this.alive = alive;
+	}
+
+	/* Generic methods */
+	
+	/**
+	 * Mock ping: the node responds if it is online, so without churn the network is
+	 * always on
+	 * @return true if the node responded
+	 */
+	public boolean ping() {
+		return alive;
+	}
+	
+	/**
+	 * Logical equality between elements, it just checks for the identifier, assuming
+	 * there are no collisions
+	 * @param n the node to confront with this one
+	 * @return true if they are equals, false otherwise
+	 */
+	public boolean equals(Node n) {
+		return this.identifier.equals(n.getId());
+	}
+
+	/**
+	 * Getter method for the IP Address string
+	 * @return the ip address of the node
+	 */
+	public String getIpAddress() {
+		return ipAddress;
+	}
+
+	/**
+	 * Getter method for the UDP port of the node
+	 * @return the UDP port where the node is listening for messages
+	 */
+	public int getUdpPort() {
+		return udpPort;
+	}
+
+}
@@ -0,0 +1,618 @@
+package kademlia;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList; 
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This is the class that modules an Node as viewed from the point of view of
+ * the coordinator. It is characterized by all the needed informations to
+ * identify a node, and the routing table of given node. This class provides all
+ * the methods needed to make nodes interact and populate routingTables
+ * 
+ * @author Lorenzo Bellomo
+ *
+ */
+public class NodeDescriptor {
+
+	/**
+	 * The result of findValue when the value is stored on the node queried
+	 */
+	public static final int VALUE_FOUND = -2;
+
+	/* Private Fields */
+
+	private long k, m;
+	private Node node;
+	private RoutingTable routingTable;
+	private Coordinator coordinator;
+	private ValueStore values;
+	
+	private long orderOfGeneration;
+
+	/* Constructors */
+
+	/**
+	 * It generates a node descriptor starting from a node identifier
+	 * 
+	 * @param node the new node
+	 * @param m  the number of bits of the identifiers
+	 * @param k  the number of entries per bucket in the routing tables
+	 * @param orderOfGeneration the number of this id, ordered by generation time
+	 */
+	public NodeDescriptor(Node node, long m, long k, Coordinator c, long orderOfGeneration) {
+		this.node = node;
+		this.k = k;
+		this.m = m;
+		this.coordinator = c;
+		routingTable = new RoutingTable(m, k, node.getId(), c.getRegistry(), c.useTreeRoutingTables(), c.getMetrics());
+		this.orderOfGeneration = orderOfGeneration;
+		values = new ValueStore();
+	}
+
+	/* Methods */
+
+	/**
+	 * It updates the routing table of this node from a list of node, by applying
+	 * the algorithm that pings the least recently seen node in case of a full bucket
+	 * 
+	 * @param list the list of potential nodes candidates.
+	 */
+	private void updateRoutingTable(List<Node> list) {
+		for (Node n : list)
+			updateRoutingTable(n);
+	}
+
+	/**
+	 * It updates the routing table of this node from a single node. This method
+	 * respects the "least recently seen" algorithm for updating entries in the
+	 * routing table (the ping method is a mock one, which fails only for the nodes
+	 * taken offline by the churn simulation)
+	 * 
+	 * @param node the single node to potentially add to the routing table
+	 */
+	private void updateRoutingTable(Node node) {
+		if (node.getId().equals(this.getNodeId()))
+			return;
+		routingTable.tryAddNode(node);
+	}
+
+	/**
+	 * This method is issued by the coordinator and orders this node to send a
+	 * findNode command with the target id given as parameter
+	 * 
+	 * @param id        the id of the node to be found
+	 */
+	public void startFindNode(NodeId id) {
+
+		Queue<Node> traveledNodes = new LinkedList<>();
+		traveledNodes.add(this.node);
+
+		List<Node> result = nodeLookup(id);
+		
+		updateRoutingTable(result);
+	}
+
+	/**
+	 * Method find node as specified in the kademlia protocol
+	 * 
+	 * @param id            The id to find
+	 * @param traveledNodes The list of nodes traveled up until this point
+	 * @return the list of best-k nodes according to the routing table
+	 */
+	public List<Node> findNode(NodeId id, Queue<Node> traveledNodes) {
+
+		Node[] bestK = new Node[(int) k];
+		int found = findNode(id, traveledNodes, bestK);
+		return new ArrayList<>(Arrays.asList(bestK).subList(0, found));
+	}
+
+	/**
+	 * Method find node as specified in the kademlia protocol, it writes the result
+	 * in a buffer provided by the caller
+	 * 
+	 * @param id            The id to find
+	 * @param traveledNodes The list of nodes traveled up until this point
+	 * @param bestK         The buffer where the best entries are written, sorted by distance
+	 * @return the number of entries written in bestK
+	 */
+	public int findNode(NodeId id, Queue<Node> traveledNodes, Node[] bestK) {
+
+		int found = routingTable.findBestEntries(k, id, bestK);
+		for (Node n : traveledNodes)
+			updateRoutingTable(n);
+		traveledNodes.add(this.node);
+
+		return found;
+	}
+
+	/**
+	 * Method store as specified in the kademlia protocol: the node keeps the value, and as
+	 * in any RPC it adds the sender to the routing table
+	 * 
+	 * @param key     The key of the value
+	 * @param value   The value
+	 * @param now     The current time
+	 * @param expiry  The time when the value expires
+	 * @param cached  True for a copy cached along the path of a lookup
+	 * @param sender  The node that sent the store
+	 */
+	public void store(NodeId key, long value, long now, long expiry, boolean cached, Node sender) {
+		updateRoutingTable(sender);
+		values.put(key, value, now, expiry, cached);
+	}
+
+	/**
+	 * Method find value as specified in the kademlia protocol: if the value is stored on
+	 * this node it is returned, otherwise this is a findNode
+	 * 
+	 * @param key           The key of the value
+	 * @param now           The current time, the expired values are not returned
+	 * @param traveledNodes The list of nodes traveled up until this point
+	 * @param bestK         The buffer where the best entries are written, sorted by distance
+	 * @param value         The buffer where the value and its cached flag are written (see
+	 *                      ValueStore.get)
+	 * @return VALUE_FOUND if the value is stored here, otherwise the number of entries
+	 *         written in bestK
+	 */
+	public int findValue(NodeId key, long now, Queue<Node> traveledNodes, Node[] bestK, long[] value) {
+		if (values.get(key, now, value)) {
+			for (Node n : traveledNodes)
+				updateRoutingTable(n);
+			traveledNodes.add(this.node);
+			return VALUE_FOUND;
+		}
+		return findNode(key, traveledNodes, bestK);
+	}
+
+	/**
+	 * getter method for the node
+	 * 
+	 * @return this node (<IP, UDP port, identifier>)
+	 */
+	public Node getNode() {
+		return node;
+	}
+
+	/**
+	 * getter for the node identifier
+	 * 
+	 * @return the node id
+	 */
+	public NodeId getNodeId() {
+		return node.getId();
+	}
+
+	/**
+	 * This method issues a nodeLookup with a target id this id. This way it
+	 * populates his routing table with some neighbor
+	 * 
+	 * @param bootstrap the bootstrap node
+	 */
+	public void joinNetwork(NodeDescriptor bootstrap) {
+		// I first add bootstrap to the routing table
+		updateRoutingTable(bootstrap.node);
+		List<Node> result = nodeLookup(this.getNodeId());
+		updateRoutingTable(result);
+
+	}
+
+	/**
+	 * Node lookup recursive procedure
+	 * @param id the id for which the best k entries must be found in the net
+	 * @return the list of best nodes 
+	 */
+	public List<Node> nodeLookup(NodeId id) {
+		return nodeLookup(id, coordinator.getMetrics());
+	}
+	
+	/**
+	 * Node lookup recursive procedure, recording the lookup in the given metrics
+	 * @param id the id for which the best k entries must be found in the net
+	 * @param metrics the metrics where the lookup is recorded
+	 * @return the list of best nodes 
+	 */
+	public List<Node> nodeLookup(NodeId id, LookupMetrics metrics) {
+		
+		ActorRuntime runtime = coordinator.getActorRuntime();
+		if (runtime != null)
+			return concurrentLookup(id, runtime, metrics);
+		
+		// I initialize the traveled list
+		Queue<Node> traveled = new LinkedList<>();
+		int alpha = coordinator.getAlpha();
+		long recursiveDepth = 0, rpcs = 0;
+		
+		// I prepare kClosest (the shortlist of closest known nodes, at most k, each
+		// one with its queried/responded state), the buffer where the RPCs write their
+		// results and the buffer of the nodes to query, both reused for the whole lookup
+		Shortlist kClosest = new Shortlist((int) k, id);
+		Node[] buffer = new Node[(int) k];
+		Node[] toQuery = new Node[(int) Math.max(k, alpha)];
+		
+		// find node actually finds the best k elements in my routing table
+		kClosest.merge(buffer, this.findNode(id, traveled, buffer));
+		kClosest.closestImproved();
+		boolean stop = false;
+		do {
+			recursiveDepth++;
+			// This loop is executed until either I queried every element in kClosest, or
+			// I do not update the closest node in one iteration
+			// I find the alpha best not queried nodes (if there are none, the closest
+			// node cannot change, then I stop)
+			int count = kClosest.nextUnqueried(alpha, toQuery);
+			for(int i = 0; i < count; i++) {
+				// For each node, I issue a find node asking the NodeDescriptor instance
+				// to the coordinator, and I update (if it responds)
+				rpcs++;
+				query(toQuery[i], id, traveled, buffer, kClosest, metrics);
+				// At this point I have at most k elements in kClosest (the most promising k)
+			}
+			stop = !kClosest.closestImproved();
+		} while (!stop);
+		
+		// At this point I have to query all the not queried nodes of the k closest, until
+		// all of them responded (a node that fails is replaced by the next one)
+		int count;
+		while ((count = kClosest.nextUnqueried(toQuery.length, toQuery)) > 0) {
+			for(int i = 0; i < count; i++) {
+				// I query it and update the kClosest
+				rpcs++;
+				query(toQuery[i], id, traveled, buffer, kClosest, metrics);
+			}
+		}
+		
+		metrics.recordLookup(recursiveDepth, rpcs, kClosest.getResponded(), kClosest.getImprovements());
+		
+		return kClosest.toList();
+	}
+	
+	/**
+	 * Sends a findNode to a node of the shortlist and merges its response, as a method call
+	 * or over the UDP transport. A node that is offline does not respond: the RPC times out
+	 * (at once, without waiting on the clock) and the node is marked as failed
+	 * @param to the node queried
+	 * @param id the target of the lookup
+	 * @param traveled the nodes traveled by the lookup
+	 * @param buffer the buffer where the response is written
+	 * @param kClosest the shortlist of the lookup
+	 * @param metrics the metrics where the timeouts are recorded
+	 * @return true if the node responded
+	 */
+	private boolean query(Node to, NodeId id, Queue<Node> traveled, Node[] buffer, Shortlist kClosest,
+			LookupMetrics metrics) {
+		UdpTransport transport = coordinator.getTransport();
+		int found = -1;
+		if (to.isAlive()) {
+			if (transport != null)
+				found = transport.findNode(node, to, id, buffer);
+			else
+				found = coordinator.askRPCInstance(to.getHandle()).findNode(id, traveled, buffer);
+		}
+		if (found < 0) {
+			metrics.recordTimeout();
+			kClosest.markFailed(to);
+			return false;
+		}
+		kClosest.markResponded(to);
+		kClosest.merge(buffer, found);
+		return true;
+	}
+
+	/**
+	 * Stores a value on the k closest nodes to the key, found with a node lookup, as the
+	 * publisher of the value (the first time and at every republish)
+	 * @param key the key of the value
+	 * @param value the value
+	 * @param now the current time
+	 * @param expiry the time when the value expires
+	 * @param metrics the metrics where the lookup and the timeouts are recorded
+	 * @return the number of nodes that stored the value
+	 */
+	public int put(NodeId key, long value, long now, long expiry, LookupMetrics metrics) {
+		int stored = 0;
+		for (Node to : nodeLookup(key, metrics)) {
+			if (!to.isAlive()) {
+				metrics.recordTimeout();
+				continue;
+			}
+			coordinator.askRPCInstance(to.getHandle()).store(key, value, now, expiry, false, node);
+			stored++;
+		}
+		return stored;
+	}
+
+	/**
+	 * Value lookup: as the node lookup, but with findValue RPCs, and it stops as soon as
+	 * a node returns the value. Then, if the path caching is enabled, the value is cached
+	 * (with a store RPC) on the closest node that responded without the value, with an
+	 * expiry that halves for every node of the shortlist closer to the key than it (the
+	 * caches far from the key, where the lookups of other nodes are less likely to pass,
+	 * last less). That node is tracked during the lookup, since the closer nodes found
+	 * later can push it out of the shortlist. A value stored on this node is found
+	 * without RPCs
+	 * @param key the key of the value
+	 * @param now the current time
+	 * @param cacheTime the time a cached copy lasts on the closest node, 0 disables the caching
+	 * @param value the buffer where the value and its cached flag are written (see ValueStore.get)
+	 * @param metrics the metrics where the lookup is recorded
+	 * @return true if the value was found
+	 */
+	public boolean valueLookup(NodeId key, long now, long cacheTime, long[] value, LookupMetrics metrics) {
+		if (values.get(key, now, value)) {
+			metrics.recordLookup(0, 0, 0, 0);
+			return true;
+		}
+		
+		Queue<Node> traveled = new LinkedList<>();
+		int alpha = coordinator.getAlpha();
+		long recursiveDepth = 0, rpcs = 0;
+		Shortlist kClosest = new Shortlist((int) k, key);
+		Node[] buffer = new Node[(int) k];
+		Node[] toQuery = new Node[(int) Math.max(k, alpha)];
+		// The closest node that responded without the value
+		Node nearestMiss = null;
+		boolean found = false;
+		
+		kClosest.merge(buffer, this.findNode(key, traveled, buffer));
+		kClosest.closestImproved();
+		boolean stop = false;
+		do {
+			recursiveDepth++;
+			int count = kClosest.nextUnqueried(alpha, toQuery);
+			for(int i = 0; i < count && !found; i++) {
+				rpcs++;
+				int response = queryValue(toQuery[i], key, now, traveled, buffer, value, kClosest, metrics);
+				found = response == VALUE_FOUND;
+				if (response >= 0 && (nearestMiss == null
+						|| key.compareDistance(toQuery[i].getId(), nearestMiss.getId()) < 0))
+					nearestMiss = toQuery[i];
+			}
+			stop = found || !kClosest.closestImproved();
+		} while (!stop);
+		
+		// As in the node lookup, I query all the nodes not queried yet of the k closest
+		int count;
+		while (!found && (count = kClosest.nextUnqueried(toQuery.length, toQuery)) > 0) {
+			for(int i = 0; i < count && !found; i++) {
+				rpcs++;
+				int response = queryValue(toQuery[i], key, now, traveled, buffer, value, kClosest, metrics);
+				found = response == VALUE_FOUND;
+				if (response >= 0 && (nearestMiss == null
+						|| key.compareDistance(toQuery[i].getId(), nearestMiss.getId()) < 0))
+					nearestMiss = toQuery[i];
+			}
+		}
+		
+		metrics.recordLookup(recursiveDepth, rpcs, kClosest.getResponded(), kClosest.getImprovements());
+		if (!found)
+			return false;
+		
+		if (cacheTime > 0 && nearestMiss != null) {
+			int closer = 0;
+			while (closer < kClosest.size() && key.compareDistance(kClosest.get(closer).getId(), nearestMiss.getId()) < 0)
+				closer++;
+			coordinator.askRPCInstance(nearestMiss.getHandle()).store(key, value[0], now,
+					now + (cacheTime >> Math.min(closer, 62)), true, node);
+		}
+		return true;
+	}
+	
+	/**
+	 * Sends a findValue to a node of the shortlist, as a method call (the values are not
+	 * carried by the UDP transport), and merges its response if it does not have the value.
+	 * A node that is offline is marked as failed, as in query
+	 * @param to the node queried
+	 * @param key the key of the value
+	 * @param now the current time
+	 * @param traveled the nodes traveled by the lookup
+	 * @param buffer the buffer where the response is written
+	 * @param value the buffer where the value is written
+	 * @param kClosest the shortlist of the lookup
+	 * @param metrics the metrics where the timeouts are recorded
+	 * @return VALUE_FOUND if the node returned the value, -1 if it did not respond, otherwise
+	 *         the number of nodes it returned
+	 */
+	private int queryValue(Node to, NodeId key, long now, Queue<Node> traveled, Node[] buffer, long[] value,
+			Shortlist kClosest, LookupMetrics metrics) {
+		if (!to.isAlive()) {
+			metrics.recordTimeout();
+			kClosest.markFailed(to);
+			return -1;
+		}
+		int found = coordinator.askRPCInstance(to.getHandle()).findValue(key, now, traveled, buffer, value);
+		kClosest.markResponded(to);
+		if (found != VALUE_FOUND)
+			kClosest.merge(buffer, found);
+		return found;
+	}
+
+	/**
+	 * Node lookup procedure of the actor mode: the findNode requests are asynchronous
+	 * messages, at most alpha of them are in flight at the same time, and every time a 
+	 * response arrives it is merged in the shortlist and the closest not queried node is
+	 * sent a new request. The lookup ends when the k closest nodes of the shortlist that did
+	 * not fail all responded.
+	 * The recursive depth is the maximum number of hops of a node that responded. If serving
+	 * a findNode throws an exception, the lookup fails with it (during the construction the
+	 * join fails, as in buildNetworkInParallel)
+	 * @param runtime the actor runtime delivering the messages
+	 * @param id the id for which the best k entries must be found in the net
+	 * @param metrics the metrics where the lookup is recorded
+	 * @return the list of best nodes 
+	 */
+	private List<Node> concurrentLookup(NodeId id, ActorRuntime runtime, LookupMetrics metrics) {
+		
+		// The traveled list is shared by the requests in flight
+		Queue<Node> traveled = new ConcurrentLinkedQueue<>();
+		int alpha = coordinator.getAlpha();
+		BlockingQueue<ActorRuntime.Request> responses = new ArrayBlockingQueue<>(alpha);
+		Deque<Node[]> freeBuffers = new ArrayDeque<>(alpha);
+		for(int i = 0; i < alpha; i++)
+			freeBuffers.push(new Node[(int) k]);
+		
+		Shortlist kClosest = new Shortlist((int) k, id);
+		Node[] buffer = freeBuffers.peek();
+		kClosest.merge(buffer, this.findNode(id, traveled, buffer), 1);
+		int inFlight = 0;
+		long recursiveDepth = 0, rpcs = 0;
+		try {
+			while(true) {
+				// I keep alpha requests in flight, as long as there are nodes to query
+				int next;
+				while(inFlight < alpha && (next = kClosest.pollUnqueried()) != -1) {
+					runtime.sendFindNode(new ActorRuntime.Request(kClosest.get(next), id, freeBuffers.pop(), 
+							kClosest.hopAt(next)), traveled, responses);
+					inFlight++;
+					rpcs++;
+				}
+				if(inFlight == 0)
+					break;
+				// I continue as soon as a response arrives
+				ActorRuntime.Request response = responses.take();
+				inFlight--;
+				freeBuffers.push(response.buffer);
+				if (response.failure != null)
+					throw new IllegalStateException("a findNode failed", response.failure);
+				if (response.count < 0) {
+					// The node is offline, the request timed out
+					metrics.recordTimeout();
+					kClosest.markFailed(response.to);
+					continue;
+				}
+				kClosest.markResponded(response.to);
+				kClosest.merge(response.buffer, response.count, response.hop + 1);
+				recursiveDepth = Math.max(recursiveDepth, response.hop);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted during a lookup", e);
+		}
+		
+		metrics.recordLookup(Math.max(1, recursiveDepth), rpcs, kClosest.getResponded(), 
+				kClosest.getImprovements());
+		
+		return kClosest.toList();
+	}
+	
+	/**
+	 * Pings the least recently seen node of the bucket with the given index, as the
+	 * periodic maintenance of the routing table: if it responds it becomes the most
+	 * recently seen one
+	 * @param index the bucket index
+	 * @return -1 if the bucket is empty or the node responded, otherwise the handle of
+	 * the node that did not respond (the caller removes it when the ping times out)
+	 */
+	public int pingLeastRecent(int index) {
+		int handle = routingTable.leastRecentAt(index);
+		if (handle == -1)
+			return -1;
+		Node leastRecent = coordinator.getRegistry().getNode(handle);
+		UdpTransport transport = coordinator.getTransport();
+		// An offline node is known to time out, without sending the ping
+		if (!leastRecent.ping() || (transport != null && !transport.ping(node, leastRecent)))
+			return handle;
+		updateRoutingTable(leastRecent);
+		return -1;
+	}
+
+	/**
+	 * Answers a ping received over the UDP transport: as in any RPC, the sender is added to
+	 * the routing table
+	 * @param sender the node that sent the ping
+	 */
+	public void handlePing(Node sender) {
+		updateRoutingTable(sender);
+	}
+
+	/**
+	 * Removes a node that did not respond from the routing table
+	 * @param node the node to remove
+	 * @return true if the node was in the routing table
+	 */
+	public boolean removeContact(Node node) {
+		return routingTable.removeNode(node);
+	}
+
+	/**
+	 * Returns the values stored on this node
+	 * @return the store of the values
+	 */
+	public ValueStore getValues() {
+		return values;
+	}
+
+	/**
+	 * Method that writes to the writer provided in input the content of
+	 * the routing table, by respecting the csv format
+	 * @param writer the write in which to write
+	 * @throws IOException
+	 */
+	public void dumpToFile(BufferedWriter writer) throws IOException {
+		routingTable.writeCSV(writer);
+	}
+	
+	/**
+	 * Copies the handles of the nodes in the routing table (the outgoing edges) in the buffer
+	 * @param out the buffer
+	 * @param offset the position of out where the first handle is written
+	 * @return the number of handles written
+	 */
+	public int exposeNeighbours(int[] out, int offset) {
+		return routingTable.copyNeighbours(out, offset);
+	}
+	
+	/**
+	 * Returns the depth of the tree routing table of this node (see RoutingTable.getDepth)
+	 * @return the depth, 0 for flat routing tables
+	 */
+	public int exposeTreeDepth() {
+		return routingTable.getDepth();
+	}
+
+	/**
+	 * Fills the empty routing table of this node from a checkpoint (see RoutingTable.restore)
+	 * @param depth the depth of the tree routing table
+	 * @param handles the buffer with the handles, in the order given by exposeNeighbours
+	 * @param from the position of the first handle
+	 * @param to the position following the last handle
+	 */
+	public void restoreRoutingTable(int depth, int[] handles, int from, int to) {
+		routingTable.restore(depth, handles, from, to);
+	}
+
+	/**
+	 * Returns the number of edges of a node
+	 * @return number of edges of this node
+	 */
+	public long exposeNumberOfEdges() {
+		return routingTable.getNumberOfEdges();
+	}
+	
+	/**
+	 * This method simply exposes to the Coordinator, for statistics reasons, the bucket index where
+	 * id is supposed to go
+	 * @return the bucket index where id should fall
+	 */
+	public Long exposeBucketIndex(NodeId id) {
+		return routingTable.findBucketIndex(id);
+	}
+	
+	/**
+	 * This method is a getter for the generation order of the node
+	 * @return the generation order
+	 */
+	public long getGenerationOrder() {
+		return orderOfGeneration;
+	}
+	
+}
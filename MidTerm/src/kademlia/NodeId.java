@@ -0,0 +1,226 @@
+package kademlia;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * This class models a node identifier of at most 160 bits (the size of a SHA1 digest).
+ * The identifier is packed in three long words, so that the XOR distance between two
+ * identifiers can be compared, and the bucket index computed, without allocating any
+ * BigInteger. Ordering and distances are the same of the unsigned BigInteger with
+ * the same bits
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public final class NodeId implements Comparable<NodeId> {
+
+	/* Public and Static Fields */
+	public static final int MAX_BITS = 160;
+
+	/* Private Fields */
+
+	// bits [128, 160)
+	private final long high;
+	// bits [64, 128)
+	private final long middle;
+	// bits [0, 64)
+	private final long low;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds the identifier starting from its three words
+	 * @param high the bits in [128, 160)
+	 * @param middle the bits in [64, 128)
+	 * @param low the bits in [0, 64)
+	 */
+	public NodeId(long high, long middle, long low) {
+		this.high = high;
+		this.middle = middle;
+		this.low = low;
+	}
+
+	/* Factory methods */
+
+	/**
+	 * Builds an identifier from a non negative BigInteger of at most 160 bits
+	 * @param value the value of the identifier
+	 * @return the identifier
+	 */
+	public static NodeId valueOf(BigInteger value) {
+		if (value.signum() < 0 || value.bitLength() > MAX_BITS)
+			throw new IllegalArgumentException("identifier out of range");
+		return new NodeId(value.shiftRight(128).longValue(), value.shiftRight(64).longValue(), value.longValue());
+	}
+
+	/**
+	 * Builds an identifier from a big endian byte array (for example a SHA1 digest), keeping only
+	 * the lowest m bits. This is the same as new BigInteger(bytes).mod(2^m)
+	 * @param bytes the big endian bytes
+	 * @param m the number of bits of the identifier
+	 * @return the identifier
+	 */
+	public static NodeId fromBytes(byte[] bytes, int m) {
+		long[] words = new long[3];
+		// I read the bytes starting from the least significant one
+		for (int i = 0; i < bytes.length && i < 24; i++) {
+			long b = bytes[bytes.length - 1 - i] & 0xFF;
+			words[i >>> 3] |= b << ((i & 7) << 3);
+		}
+		return new NodeId(words[2], words[1], words[0]).mask(m);
+	}
+
+	/* Methods */
+
+	/**
+	 * Keeps only the lowest m bits of this identifier
+	 * @param m the number of bits to keep
+	 * @return the identifier modulo 2^m
+	 */
+	public NodeId mask(int m) {
+		return new NodeId(high & lowBits(m - 128), middle & lowBits(m - 64), low & lowBits(m));
+	}
+
+	/**
+	 * Returns a mask with the lowest bits set (all of them if bits >= 64, none if bits <= 0)
+	 */
+	private static long lowBits(int bits) {
+		if (bits >= 64)
+			return -1L;
+		if (bits <= 0)
+			return 0L;
+		return (1L << bits) - 1;
+	}
+
+	/**
+	 * Compares the distances (XOR metric) of a and b from this identifier, without allocating
+	 * @param a the first identifier
+	 * @param b the second identifier
+	 * @return a negative number if a is closer to this than b, 0 if they are at the same distance
+	 * (that is, they are equal), a positive number otherwise
+	 */
+	public int compareDistance(NodeId a, NodeId b) {
+		int result = Long.compareUnsigned(a.high ^ high, b.high ^ high);
+		if (result != 0)
+			return result;
+		result = Long.compareUnsigned(a.middle ^ middle, b.middle ^ middle);
+		if (result != 0)
+			return result;
+		return Long.compareUnsigned(a.low ^ low, b.low ^ low);
+	}
+
+	/**
+	 * Returns the index of the highest set bit of the XOR distance between this and other,
+	 * which is the index of the bucket where other falls in the routing table of this.
+	 * If the two identifiers are equal it returns 0
+	 * @param other the other identifier
+	 * @return the bucket index, in the range [0, 160)
+	 */
+	public int bucketIndex(NodeId other) {
+		long xor = high ^ other.high;
+		if (xor != 0)
+			return 191 - Long.numberOfLeadingZeros(xor);
+		xor = middle ^ other.middle;
+		if (xor != 0)
+			return 127 - Long.numberOfLeadingZeros(xor);
+		xor = low ^ other.low;
+		return (xor == 0) ? 0 : 63 - Long.numberOfLeadingZeros(xor);
+	}
+
+	/**
+	 * Returns true if the bit in position index is set
+	 * @param index the position of the bit, in [0, 160)
+	 * @return true if the bit is 1
+	 */
+	public boolean testBit(int index) {
+		return ((word(index >>> 6) >>> (index & 63)) & 1L) != 0;
+	}
+
+	/**
+	 * Returns the word in position i (0 is the least significant one)
+	 * @param i the position of the word, in [0, 3)
+	 * @return the word
+	 */
+	public long word(int i) {
+		switch (i) {
+		case 0:
+			return low;
+		case 1:
+			return middle;
+		case 2:
+			return high;
+		default:
+			throw new IndexOutOfBoundsException("word " + i);
+		}
+	}
+
+	/**
+	 * Builds a random identifier which falls into the given bucket of the routing table of
+	 * this identifier: it keeps the prefix, flips the bit in position bucket, and draws the
+	 * following bits at random
+	 * @param bucket the bucket where the new identifier must fall
+	 * @param rand the random source
+	 * @return the new identifier
+	 */
+	public NodeId randomInBucket(int bucket, Random rand) {
+		long[] words = { low, middle, high };
+		int word = bucket >>> 6;
+		long below = (1L << (bucket & 63)) - 1;
+		words[word] ^= 1L << (bucket & 63);
+		words[word] = (words[word] & ~below) | (rand.nextLong() & below);
+		for (int i = 0; i < word; i++)
+			words[i] = rand.nextLong();
+		return new NodeId(words[2], words[1], words[0]);
+	}
+
+	/**
+	 * Converts this identifier to an (unsigned) BigInteger
+	 * @return the BigInteger with the same value
+	 */
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[25];
+		for (int i = 0; i < 24; i++)
+			bytes[24 - i] = (byte) (word(i >>> 3) >>> ((i & 7) << 3));
+		return new BigInteger(bytes);
+	}
+
+	@Override
+	public int compareTo(NodeId other) {
+		int result = Long.compareUnsigned(high, other.high);
+		if (result != 0)
+			return result;
+		result = Long.compareUnsigned(middle, other.middle);
+		if (result != 0)
+			return result;
+		return Long.compareUnsigned(low, other.low);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof NodeId))
+			return false;
+		NodeId other = (NodeId) o;
+		return low == other.low && middle == other.middle && high == other.high;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = low * 0x9E3779B97F4A7C15L + middle;
+		h = h * 0x9E3779B97F4A7C15L + high;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * The decimal representation of the identifier, the same of the BigInteger one
+	 */
+	@Override
+	public String toString() {
+		if (high == 0 && middle == 0)
+			return Long.toUnsignedString(low);
+		return toBigInteger().toString();
+	}
+
+}
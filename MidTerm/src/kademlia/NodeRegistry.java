@@ -0,0 +1,310 @@
+package kademlia;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class models the set of nodes joined to the network, as seen by the coordinator.
+ * Every node registered gets a dense integer handle (0 for the first one, 1 for the second
+ * and so on), the descriptors are stored in growable arrays indexed by handle, and the
+ * identifiers are mapped to their handle through a primitive open addressing index
+ * (linear probing). This way both the random choice of a node and the RPC dispatch by
+ * handle are constant time operations.
+ * The registry is thread safe: registrations and identifier lookups are serialized, while
+ * the accesses by handle do not lock (a handle is published only after the descriptor is
+ * stored, and the arrays are replaced, never shrunk, when they grow).
+ * The registry also keeps the in degree of every node (the number of routing tables
+ * containing it), updated by the routing tables as they change. The counters are ints
+ * stored in chunks that never move, so they can be updated atomically by many threads
+ * while the registry grows, and the nodes with the highest or lowest in degree can be
+ * found at any time with a bounded heap
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class NodeRegistry {
+
+	/* Private Fields */
+
+	private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final int CHUNK_BITS = 14;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	private volatile NodeDescriptor[] descriptors;
+	private volatile NodeId[] ids;
+	private volatile int size;
+
+	// The open addressing index: each slot contains handle + 1, 0 means empty
+	private int[] index;
+	private int indexMask;
+	
+	// The in degrees of the nodes, the one of handle h is in inDegrees[h >>> CHUNK_BITS][h & CHUNK_MASK]
+	private volatile int[][] inDegrees;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty registry sized for the expected number of nodes
+	 * @param expected the expected number of nodes
+	 */
+	public NodeRegistry(int expected) {
+		int capacity = Math.max(expected, 16);
+		descriptors = new NodeDescriptor[capacity];
+		ids = new NodeId[capacity];
+		index = new int[tableSizeFor(capacity)];
+		indexMask = index.length - 1;
+		inDegrees = new int[0][];
+		size = 0;
+	}
+
+	/* Methods */
+
+	/**
+	 * Registers a node descriptor, giving it the next free handle. The handle is also
+	 * stored in the node of the descriptor
+	 * @param descriptor the descriptor to register
+	 * @return the handle of the node
+	 * @throws IllegalArgumentException if the identifier is already registered
+	 */
+	public synchronized int register(NodeDescriptor descriptor) {
+		NodeId id = descriptor.getNodeId();
+		if (find(id) != -1)
+			throw new IllegalArgumentException("identifier " + id + " already registered");
+		if (size == descriptors.length)
+			grow();
+		int handle = size;
+		if ((handle >>> CHUNK_BITS) == inDegrees.length) {
+			int[][] chunks = Arrays.copyOf(inDegrees, inDegrees.length + 1);
+			chunks[chunks.length - 1] = new int[1 << CHUNK_BITS];
+			inDegrees = chunks;
+		}
+		descriptors[handle] = descriptor;
+		ids[handle] = id;
+		descriptor.getNode().setHandle(handle);
+		insertInIndex(id, handle);
+		size = handle + 1;
+		return handle;
+	}
+
+	/**
+	 * Finds the handle of the given identifier
+	 * @param id the identifier to look for
+	 * @return the handle, or -1 if the identifier is not registered
+	 */
+	public synchronized int find(NodeId id) {
+		int slot = mix(id.hashCode()) & indexMask;
+		int entry;
+		while ((entry = index[slot]) != 0) {
+			if (ids[entry - 1].equals(id))
+				return entry - 1;
+			slot = (slot + 1) & indexMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells if the identifier is registered
+	 * @param id the identifier
+	 * @return true if a node with given id is registered
+	 */
+	public boolean contains(NodeId id) {
+		return find(id) != -1;
+	}
+
+	/**
+	 * Returns the descriptor with given handle
+	 * @param handle the handle, in [0, size)
+	 * @return the descriptor
+	 */
+	public NodeDescriptor get(int handle) {
+		return descriptors[handle];
+	}
+
+	/**
+	 * Returns the node with given handle
+	 * @param handle the handle, in [0, size)
+	 * @return the node
+	 */
+	public Node getNode(int handle) {
+		return descriptors[handle].getNode();
+	}
+
+	/**
+	 * Returns the identifier of the node with given handle
+	 * @param handle the handle, in [0, size)
+	 * @return the identifier
+	 */
+	public NodeId getId(int handle) {
+		return ids[handle];
+	}
+
+	/**
+	 * Returns a registered descriptor chosen uniformly at random
+	 * @param rand the random source
+	 * @return the random descriptor
+	 */
+	public NodeDescriptor random(Random rand) {
+		int bound = size;
+		return descriptors[rand.nextInt(bound)];
+	}
+
+	/**
+	 * Returns the number of registered nodes
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds delta to the in degree of the node with given handle, atomically
+	 * @param handle the handle, in [0, size)
+	 * @param delta the change of the in degree (1 for a new edge, -1 for an evicted one)
+	 */
+	public void addInDegree(int handle, int delta) {
+		COUNTERS.getAndAdd(inDegrees[handle >>> CHUNK_BITS], handle & CHUNK_MASK, delta);
+	}
+
+	/**
+	 * Returns the in degree of the node with given handle
+	 * @param handle the handle, in [0, size)
+	 * @return the number of routing tables containing the node
+	 */
+	public int getInDegree(int handle) {
+		return (int) COUNTERS.getAcquire(inDegrees[handle >>> CHUNK_BITS], handle & CHUNK_MASK);
+	}
+
+	/**
+	 * Returns the handles of the count nodes with the highest in degree, in O(n log count)
+	 * @param count the number of nodes
+	 * @return the handles, from the highest in degree (ties are broken by handle)
+	 */
+	public int[] highestInDegrees(int count) {
+		return extremeInDegrees(count, true);
+	}
+
+	/**
+	 * Returns the handles of the count nodes with the lowest in degree, in O(n log count)
+	 * @param count the number of nodes
+	 * @return the handles, from the lowest in degree (ties are broken by handle)
+	 */
+	public int[] lowestInDegrees(int count) {
+		return extremeInDegrees(count, false);
+	}
+
+	/**
+	 * Selects the count most extreme nodes with a heap whose root is the least extreme of
+	 * the ones selected up until now, so every other node is compared only with the root
+	 */
+	private int[] extremeInDegrees(int count, boolean highest) {
+		int n = size;
+		count = Math.min(count, n);
+		int[] heap = new int[count];
+		int heapSize = 0;
+		for (int h = 0; h < n; h++) {
+			if (heapSize < count) {
+				heap[heapSize++] = h;
+				siftUp(heap, heapSize - 1, highest);
+			} else if (count > 0 && moreExtreme(h, heap[0], highest)) {
+				heap[0] = h;
+				siftDown(heap, heapSize, highest);
+			}
+		}
+		// I empty the heap, so the least extreme nodes come out first
+		int[] result = new int[count];
+		for (int i = count - 1; i >= 0; i--) {
+			result[i] = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize, highest);
+		}
+		return result;
+	}
+
+	/**
+	 * Tells if the node a is more extreme than b (higher in degree if highest, lower otherwise)
+	 */
+	private boolean moreExtreme(int a, int b, boolean highest) {
+		int cmp = Integer.compare(getInDegree(a), getInDegree(b));
+		if (cmp == 0)
+			return a < b;
+		return highest ? cmp > 0 : cmp < 0;
+	}
+
+	/**
+	 * Moves up the element in position i of the heap, until its parent is less extreme
+	 */
+	private void siftUp(int[] heap, int i, boolean highest) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!moreExtreme(heap[parent], heap[i], highest))
+				return;
+			int tmp = heap[parent];
+			heap[parent] = heap[i];
+			heap[i] = tmp;
+			i = parent;
+		}
+	}
+
+	/**
+	 * Moves down the root of the heap, until its children are more extreme
+	 */
+	private void siftDown(int[] heap, int heapSize, boolean highest) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				return;
+			if (child + 1 < heapSize && moreExtreme(heap[child], heap[child + 1], highest))
+				child++;
+			if (!moreExtreme(heap[i], heap[child], highest))
+				return;
+			int tmp = heap[child];
+			heap[child] = heap[i];
+			heap[i] = tmp;
+			i = child;
+		}
+	}
+
+	/**
+	 * Doubles the capacity of the arrays, and rebuilds the index if it gets too loaded
+	 */
+	private void grow() {
+		int capacity = descriptors.length * 2;
+		descriptors = Arrays.copyOf(descriptors, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+		if (tableSizeFor(capacity) > index.length) {
+			index = new int[tableSizeFor(capacity)];
+			indexMask = index.length - 1;
+			for (int h = 0; h < size; h++)
+				insertInIndex(ids[h], h);
+		}
+	}
+
+	/**
+	 * Puts the handle in the first free slot of the probe sequence of id
+	 */
+	private void insertInIndex(NodeId id, int handle) {
+		int slot = mix(id.hashCode()) & indexMask;
+		while (index[slot] != 0)
+			slot = (slot + 1) & indexMask;
+		index[slot] = handle + 1;
+	}
+
+	/**
+	 * Returns the power of two size of the index for the given capacity (load factor at most 0.5)
+	 */
+	private static int tableSizeFor(int capacity) {
+		return Integer.highestOneBit(capacity) << 2;
+	}
+
+	/**
+	 * Spreads the bits of the hash code, so that close identifiers do not cluster in the index
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,530 @@
+package kademlia;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class models a routing table of m buckets, each one of size k. 
+ * Buckets are KBuckets of node handles, and are only allocated when the first
+ * node falls into them.
+ * The routing table can also work in tree mode, as in the original Kademlia paper:
+ * it starts with a single bucket covering the whole identifier space, and only the
+ * bucket covering the id of the node is split (in two halves) when it is full. In this
+ * case the memory grows with the number of buckets actually split, instead of m.
+ * The routing table is thread safe: in flat mode every bucket is guarded by its own
+ * lock (the bucket itself), in tree mode, where a split changes the whole structure,
+ * the table is guarded by a single lock.
+ * It provides a number of methods for updating it
+ * @author Lorenzo Bellomo
+ *
+ */
+public class RoutingTable {
+	
+	/* Private fields*/
+
+	// Used to publish safely the buckets allocated lazily in flat mode
+	private static final VarHandle BUCKETS = MethodHandles.arrayElementVarHandle(KBucket[].class);
+
+	private long k;
+	private NodeId nodeId;
+	private int m;
+	// In flat mode the bucket i is in position i, in tree mode the leaf covering
+	// index i (i >= depth) is in position m - 1 - i
+	private KBucket[] routingTable;
+	private NodeRegistry registry;
+	// The metrics where insertions and evictions are recorded, it can be null
+	private LookupMetrics metrics;
+	
+	// Tree mode fields, ownBucket covers all the indexes in [0, depth)
+	private boolean tree;
+	private KBucket ownBucket;
+	private int depth;
+
+	/**
+	 * Constructor, builds a routing table, built of m buckets of size at most k
+	 * @param m the number of bits of the id
+	 * @param k the number of entries per bucket
+	 * @param nodeId the id creating the routing table
+	 * @param registry the registry used to resolve the handles stored in the buckets
+	 * @param tree true if the routing table is a lazily split tree, false for m flat buckets
+	 */
+	public RoutingTable(long m, long k, NodeId nodeId, NodeRegistry registry, boolean tree) {
+		this(m, k, nodeId, registry, tree, null);
+	}
+
+	/**
+	 * Constructor, builds a routing table as the other constructor, recording its updates
+	 * @param m the number of bits of the id
+	 * @param k the number of entries per bucket
+	 * @param nodeId the id creating the routing table
+	 * @param registry the registry used to resolve the handles stored in the buckets
+	 * @param tree true if the routing table is a lazily split tree, false for m flat buckets
+	 * @param metrics the metrics where the updates are recorded, null to not record them
+	 */
+	public RoutingTable(long m, long k, NodeId nodeId, NodeRegistry registry, boolean tree, LookupMetrics metrics) {
+		this.metrics = metrics;
+		this.m = (int) m;
+		this.k = k;
+		this.nodeId = nodeId;
+		this.registry = registry;
+		this.tree = tree;
+		if (tree) {
+			// A single bucket covering the whole space, no leaves yet
+			routingTable = new KBucket[0];
+			ownBucket = new KBucket((int) k);
+			depth = this.m;
+		} else {
+			routingTable = new KBucket[this.m];
+		}
+	}
+
+	/**
+	 * It updates the routing table of this node from a single node. This method
+	 * respects the "least recently seen" algorithm for updating entries in the
+	 * routing table: when the bucket is full the least recently seen node is pinged,
+	 * and it is evicted in favour of the new node only if it is offline (the ping is a
+	 * mock one, which fails only for the nodes that left or crashed with the churn).
+	 * The nodes that do not respond to a lookup are dropped with removeNode instead
+	 * 
+	 * @param node the single node to potentially add to the routing table
+	 */
+	public void tryAddNode(Node node) {
+
+		int index = (int) findBucketIndex(node.getId());
+		if (tree) {
+			synchronized (this) {
+				KBucket bucket = bucketAt(index);
+				while (bucket == ownBucket && depth > 1 && bucket.isFull() && bucket.indexOf(node.getHandle()) == -1) {
+					// The bucket covering my id is full: I split it and retry
+					splitOwnBucket();
+					bucket = bucketAt(index);
+				}
+				if (bucket == null)
+					bucket = createBucketAt(index);
+				updateBucket(bucket, node, index);
+			}
+		} else {
+			KBucket bucket = bucketAt(index);
+			if (bucket == null)
+				bucket = createBucketAt(index);
+			synchronized (bucket) {
+				updateBucket(bucket, node, index);
+			}
+		}
+	}
+
+	/**
+	 * Applies the "least recently seen" algorithm to the bucket where node falls. The
+	 * caller must hold the lock guarding the bucket
+	 * 
+	 * @param bucket the bucket of the node
+	 * @param node the node to potentially add
+	 * @param index the bucket index of the node
+	 */
+	private void updateBucket(KBucket bucket, Node node, int index) {
+		int slot = bucket.indexOf(node.getHandle());
+		if (slot != -1) {
+			// I move it to the end of the queue
+			bucket.moveToTail(slot);
+			if (metrics != null)
+				metrics.recordRefresh();
+		} else {
+			if (!bucket.isFull()) {
+				bucket.add(node.getHandle());
+				registry.addInDegree(node.getHandle(), 1);
+				if (metrics != null)
+					metrics.recordInsert(index);
+			} else {
+				// I have to first ping the least recently seen node
+				Node leastRecent = registry.getNode(bucket.leastRecent());
+				if (metrics != null)
+					metrics.recordPing();
+				if (leastRecent.ping()) // Then I put it back at the end of the queue
+					bucket.moveToTail(bucket.first());
+				else { // I add the new element in place of the least recent one
+					int evicted = bucket.replaceLeastRecent(node.getHandle());
+					registry.addInDegree(evicted, -1);
+					registry.addInDegree(node.getHandle(), 1);
+					if (metrics != null)
+						metrics.recordEviction((int) findBucketIndex(registry.getId(evicted)), index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a node from the routing table, without replacing it (the node did not
+	 * respond to a ping)
+	 * 
+	 * @param node the node to remove
+	 * @return true if the node was in the routing table
+	 */
+	public boolean removeNode(Node node) {
+		int index = (int) findBucketIndex(node.getId());
+		if (tree) {
+			synchronized (this) {
+				return removeFromBucket(bucketAt(index), node, index);
+			}
+		}
+		KBucket bucket = bucketAt(index);
+		if (bucket == null)
+			return false;
+		synchronized (bucket) {
+			return removeFromBucket(bucket, node, index);
+		}
+	}
+
+	/**
+	 * Removes the node from the bucket, if present. The caller must hold the lock guarding
+	 * the bucket
+	 */
+	private boolean removeFromBucket(KBucket bucket, Node node, int index) {
+		int slot = (bucket == null) ? -1 : bucket.indexOf(node.getHandle());
+		if (slot == -1)
+			return false;
+		bucket.remove(slot);
+		registry.addInDegree(node.getHandle(), -1);
+		if (metrics != null)
+			metrics.recordRemoval(index);
+		return true;
+	}
+
+	/**
+	 * Returns the least recently seen node of the bucket with the given index (in tree
+	 * mode, of the bucket covering that index)
+	 * 
+	 * @param index the bucket index, in [0, m)
+	 * @return the handle of the node, -1 if the bucket is empty
+	 */
+	public int leastRecentAt(int index) {
+		if (tree) {
+			synchronized (this) {
+				KBucket bucket = bucketAt(index);
+				return (bucket == null) ? -1 : bucket.leastRecent();
+			}
+		}
+		KBucket bucket = bucketAt(index);
+		if (bucket == null)
+			return -1;
+		synchronized (bucket) {
+			return bucket.leastRecent();
+		}
+	}
+
+	/**
+	 * Fills an empty routing table with the given handles, in the order written by
+	 * copyNeighbours, so that every bucket gets back its entries in the same least recently
+	 * seen order. No node is pinged, and neither the in degrees nor the metrics are updated
+	 * 
+	 * @param depth the depth of the tree, as returned by getDepth (ignored in flat mode)
+	 * @param handles the buffer with the handles
+	 * @param from the position of the first handle
+	 * @param to the position following the last handle
+	 */
+	public synchronized void restore(int depth, int[] handles, int from, int to) {
+		if (tree)
+			this.depth = depth;
+		for (int i = from; i < to; i++) {
+			int index = (int) findBucketIndex(registry.getId(handles[i]));
+			KBucket bucket = bucketAt(index);
+			if (bucket == null)
+				bucket = createBucketAt(index);
+			bucket.add(handles[i]);
+		}
+	}
+
+	/**
+	 * Returns the depth of the tree: the bucket covering the id of this node covers all
+	 * the indexes in [0, depth)
+	 * 
+	 * @return the depth in tree mode, 0 in flat mode
+	 */
+	public synchronized int getDepth() {
+		return tree ? depth : 0;
+	}
+
+	/**
+	 * Given an id, it returns the bucket in the routing table of given id
+	 * 
+	 * @param id the id whose bucket must be found
+	 * @return the id of the bucket (in the range [0, m))
+	 */
+	public long findBucketIndex(NodeId id) {
+		// The bucket is the position of the highest set bit of the XOR distance (0 if the
+		// distance is 0), computed exactly on the words of the identifiers
+		return nodeId.bucketIndex(id);
+	}
+
+	/**
+	 * Returns the bucket where the ids with given bucket index are stored
+	 * 
+	 * @param index the bucket index, in [0, m)
+	 * @return the bucket, null if not allocated yet
+	 */
+	private KBucket bucketAt(int index) {
+		if (!tree)
+			return (KBucket) BUCKETS.getAcquire(routingTable, index);
+		if (index < depth)
+			return ownBucket;
+		int leaf = m - 1 - index;
+		return (leaf < routingTable.length) ? routingTable[leaf] : null;
+	}
+
+	/**
+	 * Allocates the bucket for the given index (a leaf in tree mode). In flat mode, if
+	 * another thread allocated it first, that bucket is returned
+	 * 
+	 * @param index the bucket index, in [0, m)
+	 * @return the bucket
+	 */
+	private synchronized KBucket createBucketAt(int index) {
+		KBucket bucket = new KBucket((int) k);
+		if (!tree) {
+			KBucket current = (KBucket) BUCKETS.getAcquire(routingTable, index);
+			if (current != null)
+				return current;
+			BUCKETS.setRelease(routingTable, index, bucket);
+		} else {
+			int leaf = m - 1 - index;
+			if (leaf >= routingTable.length)
+				routingTable = Arrays.copyOf(routingTable, leaf + 1);
+			routingTable[leaf] = bucket;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Tree mode only, it splits the bucket covering the id of this node in two halves:
+	 * the one not containing this node becomes the leaf for index depth - 1 (allocated only
+	 * if some node falls into it), the other one is the new own bucket. The least recently
+	 * seen order is preserved in both
+	 */
+	private void splitOwnBucket() {
+		depth--;
+		KBucket near = new KBucket((int) k);
+		KBucket far = null;
+		for (int s = ownBucket.first(); s != -1; s = ownBucket.next(s)) {
+			int handle = ownBucket.handleAt(s);
+			if (nodeId.bucketIndex(registry.getId(handle)) == depth) {
+				if (far == null)
+					far = createBucketAt(depth);
+				far.add(handle);
+			} else {
+				near.add(handle);
+			}
+		}
+		ownBucket = near;
+	}
+
+	/**
+	 * Returns the allocated buckets ordered by bucket index (in tree mode the own bucket,
+	 * covering the lowest indexes, comes first). It is meant to be used when the
+	 * construction of the network is over
+	 * 
+	 * @return the list of buckets
+	 */
+	private synchronized List<KBucket> buckets() {
+		List<KBucket> list = new ArrayList<>();
+		if (tree)
+			list.add(ownBucket);
+		for (int index = tree ? depth : 0; index < m; index++) {
+			KBucket bucket = bucketAt(index);
+			if (bucket != null)
+				list.add(bucket);
+		}
+		return list;
+	}
+
+	/**
+	 * This method finds the best x entries in the routing table, where x is passed
+	 * as a parameter. If the node knows less than x nodes, it just returns the
+	 * whole set of known nodes
+	 * 
+	 * @param x  the number of entries to return
+	 * @param id the target id from which to minimize the distance
+	 * @return the list of best entries in the routing table, sorted by distance
+	 */
+	public List<Node> findBestEntries(long x, NodeId id) {
+		Node[] bestX = new Node[(int) x];
+		int found = findBestEntries(x, id, bestX);
+		return new ArrayList<>(Arrays.asList(bestX).subList(0, found));
+	}
+
+	/**
+	 * This method finds the best x entries in the routing table and writes them, sorted
+	 * by distance from id, in the buffer given by the caller (that can be reused across calls).
+	 * The buckets are visited in increasing XOR distance from id, so the visit stops as soon
+	 * as x entries are found, and only the entries of a single bucket need to be ordered
+	 * among them. Let d be the distance between this node and id and b its highest bit:
+	 * the bucket b contains the closest entries (distance lower than 2^b), then come the
+	 * buckets i < b with bit i of d set (from the highest one), then the buckets i < b with
+	 * bit i of d not set (from the lowest one), and finally the buckets i > b, in order
+	 * 
+	 * @param x  the number of entries to return
+	 * @param id the target id from which to minimize the distance
+	 * @param bestX the buffer where the entries are written, from position 0
+	 * @return the number of entries written, at most min(x, bestX.length)
+	 */
+	public int findBestEntries(long x, NodeId id, Node[] bestX) {
+		if (tree) {
+			synchronized (this) {
+				return collectBestEntries(x, id, bestX);
+			}
+		}
+		return collectBestEntries(x, id, bestX);
+	}
+
+	/**
+	 * The implementation of findBestEntries, in tree mode the caller must hold the table lock
+	 */
+	private int collectBestEntries(long x, NodeId id, Node[] bestX) {
+		int limit = (int) Math.min(x, bestX.length);
+		int found = 0;
+		// In tree mode the own bucket covers more indexes, I must visit it only once
+		boolean ownVisited = false;
+		int b = (int) findBucketIndex(id);
+		if (nodeId.equals(id)) {
+			// The distance is 0, each bucket i holds distances in [2^i, 2^(i+1))
+			b = -1;
+		} else {
+			found = visitBucket(bucketAt(b), id, bestX, found, limit);
+			ownVisited = tree && b < depth;
+		}
+		// The buckets i < b with bit i of d set, from the highest one
+		for (int i = b - 1; i >= 0 && found < limit; i--) {
+			if (nodeId.testBit(i) == id.testBit(i) || (tree && i < depth && ownVisited))
+				continue;
+			ownVisited |= tree && i < depth;
+			found = visitBucket(bucketAt(i), id, bestX, found, limit);
+		}
+		// The buckets i < b with bit i of d not set, from the lowest one
+		for (int i = 0; i < b && found < limit; i++) {
+			if (nodeId.testBit(i) != id.testBit(i) || (tree && i < depth && ownVisited))
+				continue;
+			ownVisited |= tree && i < depth;
+			found = visitBucket(bucketAt(i), id, bestX, found, limit);
+		}
+		// The buckets i > b, in increasing order
+		for (int i = b + 1; i < m && found < limit; i++) {
+			if (tree && i < depth && ownVisited)
+				continue;
+			ownVisited |= tree && i < depth;
+			found = visitBucket(bucketAt(i), id, bestX, found, limit);
+		}
+		return found;
+	}
+
+	/**
+	 * Inserts the entries of a bucket in the sorted buffer. All the entries already in
+	 * the buffer are closer to id than the ones of the bucket, so they are never moved:
+	 * the entries of this bucket are insertion sorted after them, keeping at most limit
+	 * entries in total
+	 * 
+	 * @param bucket the bucket to visit (nothing happens if null)
+	 * @param id the target id
+	 * @param bestX the buffer
+	 * @param found the number of entries already in the buffer
+	 * @param limit the maximum number of entries in the buffer
+	 * @return the new number of entries in the buffer
+	 */
+	private int visitBucket(KBucket bucket, NodeId id, Node[] bestX, int found, int limit) {
+		if (bucket == null)
+			return found;
+		synchronized (bucket) {
+			return insertSorted(bucket, id, bestX, found, limit);
+		}
+	}
+
+	/**
+	 * The implementation of visitBucket, the caller must hold the lock guarding the bucket
+	 */
+	private int insertSorted(KBucket bucket, NodeId id, Node[] bestX, int found, int limit) {
+		int segmentStart = found;
+		for (int s = 0; s < bucket.size(); s++) {
+			Node node = registry.getNode(bucket.handleAt(s));
+			int position = found;
+			if (found == limit) {
+				// The buffer is full, the entry is kept only if closer than the last one
+				if (id.compareDistance(node.getId(), bestX[limit - 1].getId()) >= 0)
+					continue;
+				position = limit - 1;
+			} else {
+				found++;
+			}
+			while (position > segmentStart && id.compareDistance(node.getId(), bestX[position - 1].getId()) < 0) {
+				bestX[position] = bestX[position - 1];
+				position--;
+			}
+			bestX[position] = node;
+		}
+		return found;
+	}
+
+	/**
+	 * This method returns a string in this format:
+	 * for each edge (x, y) -> "x,y\n"
+	 * This string is the one that is written to the csv file
+	 * @return
+	 */
+	public String getCSVDump() {
+		StringBuilder builder = new StringBuilder();
+		for (KBucket bucket : buckets()) {
+			// I visit the bucket from the least recently seen node to the most recent one
+			for (int s = bucket.first(); s != -1; s = bucket.next(s))
+				builder.append(this.nodeId + "," + registry.getId(bucket.handleAt(s)) + System.lineSeparator());
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Writes the edges of the routing table to the writer in the same csv format of
+	 * getCSVDump, without building the whole string in memory
+	 * @param writer the writer
+	 * @throws IOException if the writer fails
+	 */
+	public void writeCSV(Writer writer) throws IOException {
+		String source = this.nodeId.toString();
+		for (KBucket bucket : buckets()) {
+			for (int s = bucket.first(); s != -1; s = bucket.next(s)) {
+				writer.write(source);
+				writer.write(',');
+				writer.write(registry.getId(bucket.handleAt(s)).toString());
+				writer.write(System.lineSeparator());
+			}
+		}
+	}
+	
+	/**
+	 * Copies the handles of the nodes in the routing table (the outgoing edges) in the
+	 * buffer, visiting every bucket from the least recently seen node to the most recent one
+	 * @param out the buffer, with room for at least getNumberOfEdges() handles after offset
+	 * @param offset the position of out where the first handle is written
+	 * @return the number of handles written
+	 */
+	public int copyNeighbours(int[] out, int offset) {
+		int written = 0;
+		for (KBucket bucket : buckets()) {
+			for (int s = bucket.first(); s != -1; s = bucket.next(s))
+				out[offset + written++] = bucket.handleAt(s);
+		}
+		return written;
+	}
+	
+	/** 
+	 * Returns the number of edges in the routing table
+	 * @return the number of outgoing edges in the routing table
+	 */
+	public long getNumberOfEdges() {
+		long numberOfEdges = 0;
+		for (KBucket bucket : buckets())
+			numberOfEdges += bucket.size();
+		return numberOfEdges;
+	}
+
+}
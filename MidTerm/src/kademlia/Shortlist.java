@@ -0,0 +1,330 @@
+package kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class models the shortlist of a node lookup: the closest nodes to the target known
+ * up until now, ordered by distance from the target, each one with its state (not queried
+ * yet, queried, responded or failed) and the number of hops from the node starting the
+ * lookup (1 for the nodes in its own routing table). All the operations scan the list at
+ * most once, and apart from toList no operation allocates, except when the two internal
+ * buffers (swapped at every merge) grow.
+ * The nodes that failed stay in the list, so that they are not queried again, but they do
+ * not count in the k nodes. Only the k closest nodes that did not fail (the window) are
+ * queried and returned by toList, but the farther nodes are kept too, as long as some
+ * node of the window did not respond yet: any of them can still fail, and then the next
+ * node takes its place in the window. When all the nodes of the window responded, the
+ * farther ones are dropped by the next merge, since they can no longer enter the window
+ * (a closer node can only push them farther). So the lookup ends, when no node of the
+ * window is left to query, with the k closest nodes that responded among all the ones
+ * it heard of
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Shortlist {
+
+	/* Public and Static Fields */
+	public static final byte NOT_QUERIED = 0;
+	public static final byte QUERIED = 1;
+	public static final byte RESPONDED = 2;
+	public static final byte FAILED = 3;
+
+	/* Private Fields */
+
+	private NodeId target;
+	private final int capacity;
+	private Node[] entries, mergeEntries;
+	private byte[] states, mergeStates;
+	private int[] hops, mergeHops;
+	private int size;
+	private boolean improved;
+	private int improvements, responded;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty shortlist
+	 * @param capacity the maximum number of entries (k)
+	 * @param target the target id of the lookup
+	 */
+	public Shortlist(int capacity, NodeId target) {
+		this.target = target;
+		this.capacity = capacity;
+		entries = new Node[capacity];
+		mergeEntries = new Node[capacity];
+		states = new byte[capacity];
+		mergeStates = new byte[capacity];
+		hops = new int[capacity];
+		mergeHops = new int[capacity];
+		size = 0;
+		improved = false;
+		improvements = 0;
+		responded = 0;
+	}
+
+	/* Methods */
+
+	/**
+	 * Merges the response of a node (a list sorted by distance from the target) in the
+	 * shortlist, keeping the states of the nodes already known. The nodes farther than the
+	 * window are dropped only if all the nodes of the window responded. It costs
+	 * O(size + count)
+	 * @param nodes the buffer containing the response
+	 * @param count the number of nodes in the buffer
+	 */
+	public void merge(Node[] nodes, int count) {
+		merge(nodes, count, 1);
+	}
+
+	/**
+	 * Merges the response of a node as merge(nodes, count), recording the number of hops
+	 * of the new nodes
+	 * @param nodes the buffer containing the response
+	 * @param count the number of nodes in the buffer
+	 * @param hop the number of hops of the nodes in the response
+	 */
+	public void merge(Node[] nodes, int count, int hop) {
+		Node oldClosest = closest();
+		if (mergeEntries.length < size + count) {
+			int length = Math.max(size + count, 2 * mergeEntries.length);
+			mergeEntries = new Node[length];
+			mergeStates = new byte[length];
+			mergeHops = new int[length];
+		}
+		// live counts the nodes that did not fail, settled tells if the ones in the window responded
+		int i = 0, j = 0, merged = 0, live = 0;
+		boolean settled = true;
+		while ((live < capacity || !settled) && (i < size || j < count)) {
+			int cmp;
+			if (i == size)
+				cmp = 1;
+			else if (j == count)
+				cmp = -1;
+			else
+				cmp = target.compareDistance(entries[i].getId(), nodes[j].getId());
+			if (cmp <= 0) {
+				// Already present (same distance means same id) or closer: I keep the old entry
+				mergeEntries[merged] = entries[i];
+				mergeHops[merged] = hops[i];
+				if (states[i] != FAILED && ++live <= capacity && states[i] != RESPONDED)
+					settled = false;
+				mergeStates[merged++] = states[i++];
+				if (cmp == 0)
+					j++;
+			} else {
+				mergeEntries[merged] = nodes[j++];
+				mergeHops[merged] = hop;
+				mergeStates[merged++] = NOT_QUERIED;
+				if (++live <= capacity)
+					settled = false;
+			}
+		}
+		// I clear the entries pushed out, and swap the buffers
+		for (int s = merged; s < size; s++)
+			entries[s] = null;
+		Node[] tmpEntries = entries;
+		entries = mergeEntries;
+		mergeEntries = tmpEntries;
+		byte[] tmpStates = states;
+		states = mergeStates;
+		mergeStates = tmpStates;
+		int[] tmpHops = hops;
+		hops = mergeHops;
+		mergeHops = tmpHops;
+		size = merged;
+		if (closest() != oldClosest) {
+			improved = true;
+			if (oldClosest != null)
+				improvements++;
+		}
+	}
+
+	/**
+	 * Finds the (at most) alpha closest nodes of the window not queried yet, and marks them
+	 * as queried
+	 * @param alpha the maximum number of nodes to return
+	 * @param out the buffer where the nodes are written
+	 * @return the number of nodes written in out
+	 */
+	public int nextUnqueried(int alpha, Node[] out) {
+		int found = 0, live = 0;
+		for (int i = 0; i < size && live < capacity && found < alpha && found < out.length; i++) {
+			if (states[i] == FAILED)
+				continue;
+			live++;
+			if (states[i] == NOT_QUERIED) {
+				states[i] = QUERIED;
+				out[found++] = entries[i];
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the closest node of the window not queried yet, and marks it as queried
+	 * @return the position of the node, -1 if all the nodes of the window were queried
+	 */
+	public int pollUnqueried() {
+		int live = 0;
+		for (int i = 0; i < size && live < capacity; i++) {
+			if (states[i] == FAILED)
+				continue;
+			live++;
+			if (states[i] == NOT_QUERIED) {
+				states[i] = QUERIED;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Marks the node as responded, if it is still in the shortlist
+	 * @param node the node that sent the response
+	 */
+	public void markResponded(Node node) {
+		responded++;
+		setState(node, RESPONDED);
+	}
+
+	/**
+	 * Marks the node as failed (it did not respond), if it is still in the shortlist
+	 * @param node the node that failed
+	 */
+	public void markFailed(Node node) {
+		setState(node, FAILED);
+	}
+
+	/**
+	 * Sets the state of node with a binary search on the distances
+	 */
+	private void setState(Node node, byte state) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = target.compareDistance(entries[mid].getId(), node.getId());
+			if (cmp == 0) {
+				states[mid] = state;
+				return;
+			}
+			if (cmp < 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+	}
+
+	/**
+	 * Returns the closest node known (it can be a node that failed)
+	 * @return the closest node, null if the shortlist is empty
+	 */
+	public Node closest() {
+		return (size == 0) ? null : entries[0];
+	}
+
+	/**
+	 * Tells if the closest node changed since the last call of this method, this is what
+	 * is used to detect the convergence of the lookup
+	 * @return true if a closer node was found
+	 */
+	public boolean closestImproved() {
+		boolean result = improved;
+		improved = false;
+		return result;
+	}
+
+	/**
+	 * Returns the number of times the closest node changed, since the first merge
+	 * @return the number of improvements
+	 */
+	public int getImprovements() {
+		return improvements;
+	}
+
+	/**
+	 * Returns the number of responses received, including the ones of nodes no longer in
+	 * the shortlist
+	 * @return the number of responses
+	 */
+	public int getResponded() {
+		return responded;
+	}
+
+	/**
+	 * Tells if there are nodes of the window not queried yet
+	 * @return true if at least a node of the window was never queried
+	 */
+	public boolean hasUnqueried() {
+		int live = 0;
+		for (int i = 0; i < size && live < capacity; i++) {
+			if (states[i] == FAILED)
+				continue;
+			live++;
+			if (states[i] == NOT_QUERIED)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the state of the entry in position i
+	 * @param i the position, in [0, size)
+	 * @return the state of the entry
+	 */
+	public byte stateAt(int i) {
+		return states[i];
+	}
+
+	/**
+	 * Returns the number of hops of the entry in position i
+	 * @param i the position, in [0, size)
+	 * @return the number of hops from the node starting the lookup
+	 */
+	public int hopAt(int i) {
+		return hops[i];
+	}
+
+	/**
+	 * Returns the entry in position i (0 is the closest)
+	 * @param i the position, in [0, size)
+	 * @return the node
+	 */
+	public Node get(int i) {
+		return entries[i];
+	}
+
+	/**
+	 * Returns the number of nodes in the shortlist, including the ones that failed and the
+	 * ones farther than the window
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the target id of the lookup
+	 * @return the target
+	 */
+	public NodeId getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the window of the shortlist as a new list, sorted by distance: the (at most)
+	 * k closest nodes that did not fail (they stay in the shortlist, so that they are not
+	 * queried again)
+	 * @return the list of nodes
+	 */
+	public List<Node> toList() {
+		List<Node> list = new ArrayList<>(Math.min(size, capacity));
+		for (int i = 0; i < size && list.size() < capacity; i++) {
+			if (states[i] != FAILED)
+				list.add(entries[i]);
+		}
+		return list;
+	}
+
+}
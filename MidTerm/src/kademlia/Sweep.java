@@ -0,0 +1,180 @@
+package kademlia;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs a parameter sweep: many independent simulations (one Coordinator each,
+ * sharing nothing) executed at the same time by a pool sized to the machine, whose
+ * statistics are collected in a single table at the end. Every run has its own seed,
+ * displayed in the table, so that any run can be repeated alone with Main.
+ * The configurations are given as a grid, or as a file with a configuration per line:
+ * m=LIST n=LIST k=LIST   the grid (all the combinations of the comma separated lists)
+ * file=F                 the file, every line is "m n k [options]" (# starts a comment)
+ * runs=R                 runs of every configuration, with different seeds (default 1)
+ * jobs=J                 simulations running at the same time (default one per core)
+ * The other arguments are options of Main applied to every run (for example --tree).
+ * With --seed=S the seeds of the runs are S, S + 1, S + 2 and so on. With --snapshots=N
+ * every run writes its snapshots to networkSnapshots-SEED.jsonl, SEED being its seed
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Sweep {
+
+	/* Private Fields */
+
+	private final List<String[]> configurations;
+	private final int runs;
+	private final int jobs;
+	private final Long baseSeed;
+
+	/* Constructors */
+
+	/**
+	 * Constructor of the sweep
+	 * @param configurations the configurations, each one is "m n k [options]"
+	 * @param runs the number of runs of every configuration
+	 * @param jobs the number of simulations running at the same time
+	 * @param baseSeed the seed of the first run, null for random seeds
+	 */
+	public Sweep(List<String[]> configurations, int runs, int jobs, Long baseSeed) {
+		this.configurations = configurations;
+		this.runs = runs;
+		this.jobs = jobs;
+		this.baseSeed = baseSeed;
+	}
+
+	/* Methods */
+
+	/**
+	 * Builds the sweep from the command line arguments (the ones following --sweep)
+	 * @param args the arguments
+	 * @return the sweep
+	 * @throws IOException if the file of the configurations cannot be read
+	 */
+	public static Sweep fromArguments(String[] args) throws IOException {
+		String[] ms = null, ns = null, ks = null;
+		List<String> options = new ArrayList<>();
+		List<String[]> configurations = new ArrayList<>();
+		int runs = 1, jobs = Runtime.getRuntime().availableProcessors();
+		Long baseSeed = null;
+		for (String arg : args) {
+			if (arg.startsWith("m="))
+				ms = arg.substring(2).split(",");
+			else if (arg.startsWith("n="))
+				ns = arg.substring(2).split(",");
+			else if (arg.startsWith("k="))
+				ks = arg.substring(2).split(",");
+			else if (arg.startsWith("runs="))
+				runs = Integer.parseInt(arg.substring(5));
+			else if (arg.startsWith("jobs="))
+				jobs = Integer.parseInt(arg.substring(5));
+			else if (arg.startsWith("file=")) {
+				for (String line : Files.readAllLines(Paths.get(arg.substring(5)))) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#"))
+						configurations.add(line.split("\\s+"));
+				}
+			} else if (arg.startsWith("--seed="))
+				baseSeed = Long.parseLong(arg.substring(7));
+			else if (arg.startsWith("--"))
+				options.add(arg);
+			else
+				throw new IllegalArgumentException("unknown sweep argument " + arg);
+		}
+		if (ms != null || ns != null || ks != null) {
+			if (ms == null || ns == null || ks == null)
+				throw new IllegalArgumentException("the grid needs m, n and k");
+			for (String m : ms)
+				for (String n : ns)
+					for (String k : ks)
+						configurations.add(new String[] { m, n, k });
+		}
+		if (configurations.isEmpty())
+			throw new IllegalArgumentException("no configuration to run");
+		// The common options are appended to every configuration
+		List<String[]> withOptions = new ArrayList<>();
+		for (String[] configuration : configurations) {
+			String[] full = Arrays.copyOf(configuration, configuration.length + options.size());
+			for (int i = 0; i < options.size(); i++)
+				full[configuration.length + i] = options.get(i);
+			withOptions.add(full);
+		}
+		return new Sweep(withOptions, runs, Math.max(1, jobs), baseSeed);
+	}
+
+	/**
+	 * Runs all the simulations, and prints the table of their statistics in the order of
+	 * the configurations
+	 */
+	public void run() {
+		long startTime = System.currentTimeMillis();
+		Random seeds = new Random();
+		ExecutorService pool = Executors.newFixedThreadPool(jobs);
+		List<Future<NetworkStatistics>> results = new ArrayList<>();
+		try {
+			int index = 0;
+			for (String[] configuration : configurations) {
+				for (int r = 0; r < runs; r++) {
+					long seed = (baseSeed != null) ? baseSeed + index : seeds.nextLong();
+					index++;
+					results.add(pool.submit(() -> simulate(configuration, seed)));
+				}
+			}
+
+			System.out.println(NetworkStatistics.header());
+			long sumMillis = 0, maxMillis = 0;
+			for (Future<NetworkStatistics> result : results) {
+				NetworkStatistics statistics = result.get();
+				System.out.println(statistics.toRow());
+				sumMillis += statistics.getBuildMillis();
+				maxMillis = Math.max(maxMillis, statistics.getBuildMillis());
+			}
+			long elapsed = System.currentTimeMillis() - startTime;
+			System.out.println("===========================================================================");
+			System.out.println(results.size() + " simulations with " + jobs + " jobs in " + elapsed / 1000.0
+					+ " seconds (sum of the builds " + sumMillis / 1000.0 + ", longest build " + maxMillis / 1000.0 + ")");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while running the sweep", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a simulation failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds the network of a configuration with the given seed, and returns its statistics
+	 */
+	private static NetworkStatistics simulate(String[] configuration, long seed) {
+		long m = Long.parseLong(configuration[0]);
+		long n = Long.parseLong(configuration[1]);
+		long k = Long.parseLong(configuration[2]);
+		if (m <= 0 || k <= 0 || n <= 0 || m > NodeId.MAX_BITS)
+			throw new IllegalArgumentException("parameter out of range");
+		Coordinator coordinator = new Coordinator(n, m, k);
+		for (int i = 3; i < configuration.length; i++)
+			Main.applyOption(coordinator, configuration[i]);
+		coordinator.setSeed(seed);
+		coordinator.setSnapshotsPath(Paths.get("networkSnapshots-" + seed + ".jsonl"));
+		coordinator.setVerbose(false);
+		try {
+			coordinator.buildNetwork();
+			return coordinator.getStatistics();
+		} finally {
+			coordinator.close();
+		}
+	}
+
+}
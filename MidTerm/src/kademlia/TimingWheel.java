@@ -0,0 +1,286 @@
+package kademlia;
+
+import java.util.Arrays;
+
+/**
+ * This class models the event queue of a discrete-event simulation on a virtual clock,
+ * measured in ticks (the churn simulation uses one tick per millisecond). It is a
+ * hierarchical timing wheel: 4 levels of 256 slots, where the level l holds the events
+ * that share with the current time all the bits above 8 (l + 1) but not the bits
+ * [8 l, 8 l + 8), in the slot given by those bits. When the clock reaches the start of a
+ * slot of a higher level, its events are cascaded to the lower levels, so every event is
+ * moved at most 4 times, and scheduling and firing are constant time. The events farther
+ * than 2^32 ticks wait in an overflow list, checked every 2^32 ticks.
+ * Events are not objects: their fields are kept in parallel arrays, linked in the slots
+ * by index and recycled through a free list, so a simulation allocates only when the
+ * number of pending events grows. Every event has a type and two int arguments, which are
+ * given to the handler. Events with the same time fire in the order they were scheduled
+ * (the slots are FIFO lists), and a bitmap per level lets the clock jump over the empty
+ * slots
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class TimingWheel {
+
+	/**
+	 * The receiver of the events, it can schedule new events while handling one
+	 */
+	public interface Handler {
+		/**
+		 * Handles an event, the clock of the wheel is at the time of the event
+		 * @param type the type of the event
+		 * @param a the first argument
+		 * @param b the second argument
+		 */
+		void handle(int type, int a, int b);
+	}
+
+	/* Private Fields */
+
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 8;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int INITIAL_EVENTS = 1024;
+
+	// The events, linked in the slots (or in the free list) by next
+	private long[] times;
+	private int[] types, as, bs, next;
+	private int free, allocated;
+	// The FIFO list of every slot of every level, and the bitmap of the slots not empty
+	private final int[] heads, tails;
+	private final long[] occupied;
+	private int overflowHead, overflowTail;
+	private long now;
+	private int size;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty wheel with the clock at 0
+	 */
+	public TimingWheel() {
+		times = new long[INITIAL_EVENTS];
+		types = new int[INITIAL_EVENTS];
+		as = new int[INITIAL_EVENTS];
+		bs = new int[INITIAL_EVENTS];
+		next = new int[INITIAL_EVENTS];
+		free = -1;
+		heads = new int[LEVELS * SLOTS];
+		tails = new int[LEVELS * SLOTS];
+		Arrays.fill(heads, -1);
+		Arrays.fill(tails, -1);
+		occupied = new long[LEVELS * SLOTS / 64];
+		overflowHead = -1;
+		overflowTail = -1;
+	}
+
+	/* Methods */
+
+	/**
+	 * Returns the current time of the clock
+	 * @return the time in ticks
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Returns the number of events scheduled and not fired yet
+	 * @return the pending events
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Schedules an event, a time in the past is the current time
+	 * @param time the time of the event in ticks
+	 * @param type the type of the event
+	 * @param a the first argument
+	 * @param b the second argument
+	 */
+	public void schedule(long time, int type, int a, int b) {
+		int e = allocate();
+		times[e] = Math.max(time, now);
+		types[e] = type;
+		as[e] = a;
+		bs[e] = b;
+		insert(e);
+		size++;
+	}
+
+	/**
+	 * Fires in order all the events with time up to end (included), the events scheduled
+	 * by the handler in that range are fired as well. At the end the clock is at end
+	 * @param end the last time fired
+	 * @param handler the handler of the events
+	 * @return the number of events fired
+	 */
+	public long run(long end, Handler handler) {
+		long fired = 0;
+		while (true) {
+			// I fire the events of the current tick, including the ones scheduled meanwhile
+			int slot = (int) (now & SLOT_MASK);
+			int e;
+			while ((e = heads[slot]) != -1) {
+				heads[slot] = next[e];
+				if (next[e] == -1)
+					tails[slot] = -1;
+				int type = types[e], a = as[e], b = bs[e];
+				release(e);
+				size--;
+				fired++;
+				handler.handle(type, a, b);
+			}
+			clearOccupied(slot);
+			if (now >= end)
+				return fired;
+			long time = nextTime();
+			if (time > end) {
+				// Nothing happens before end, the wheel stays consistent since no slot is crossed
+				now = end;
+				return fired;
+			}
+			advance(time);
+		}
+	}
+
+	/**
+	 * Returns the first time after now when something happens: either a slot of level 0
+	 * fires, or a slot of a higher level is cascaded
+	 */
+	private long nextTime() {
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * SLOT_BITS;
+			int digit = (int) ((now >>> shift) & SLOT_MASK);
+			int slot = nextOccupied(level, digit + 1);
+			if (slot != -1) {
+				// The start of that slot: the bits below the level are 0
+				long above = now & ~((1L << (shift + SLOT_BITS)) - 1);
+				return above | ((long) slot << shift);
+			}
+		}
+		if (overflowHead != -1)
+			return (now | ((1L << (LEVELS * SLOT_BITS)) - 1)) + 1;
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Moves the clock to time, cascading the slots that start at that time, from the
+	 * highest level down, so that an event can go down several levels at once
+	 */
+	private void advance(long time) {
+		now = time;
+		if ((time & ((1L << (LEVELS * SLOT_BITS)) - 1)) == 0 && overflowHead != -1) {
+			int e = overflowHead;
+			overflowHead = -1;
+			overflowTail = -1;
+			while (e != -1) {
+				int following = next[e];
+				insert(e);
+				e = following;
+			}
+		}
+		for (int level = LEVELS - 1; level > 0; level--) {
+			int shift = level * SLOT_BITS;
+			if ((time & ((1L << shift) - 1)) != 0)
+				continue;
+			int slot = level * SLOTS + (int) ((time >>> shift) & SLOT_MASK);
+			int e = heads[slot];
+			if (e == -1)
+				continue;
+			heads[slot] = -1;
+			tails[slot] = -1;
+			clearOccupied(slot);
+			while (e != -1) {
+				int following = next[e];
+				insert(e);
+				e = following;
+			}
+		}
+	}
+
+	/**
+	 * Appends the event to the slot of the lowest level where it can stay
+	 */
+	private void insert(int e) {
+		long time = times[e];
+		long differing = time ^ now;
+		int level = 0;
+		while (level < LEVELS && (differing >>> ((level + 1) * SLOT_BITS)) != 0)
+			level++;
+		next[e] = -1;
+		if (level == LEVELS) {
+			if (overflowTail == -1)
+				overflowHead = e;
+			else
+				next[overflowTail] = e;
+			overflowTail = e;
+			return;
+		}
+		int slot = level * SLOTS + (int) ((time >>> (level * SLOT_BITS)) & SLOT_MASK);
+		if (tails[slot] == -1)
+			heads[slot] = e;
+		else
+			next[tails[slot]] = e;
+		tails[slot] = e;
+		occupied[slot >>> 6] |= 1L << slot;
+	}
+
+	/**
+	 * Returns the first slot not empty of the level, starting from the given one
+	 * @return the slot in [from, SLOTS), -1 if they are all empty
+	 */
+	private int nextOccupied(int level, int from) {
+		if (from >= SLOTS)
+			return -1;
+		int base = level * SLOTS / 64;
+		int word = from >>> 6;
+		long bits = occupied[base + word] & (-1L << from);
+		while (true) {
+			if (bits != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			if (++word == SLOTS / 64)
+				return -1;
+			bits = occupied[base + word];
+		}
+	}
+
+	/**
+	 * Marks the slot as empty in the bitmap
+	 */
+	private void clearOccupied(int slot) {
+		occupied[slot >>> 6] &= ~(1L << slot);
+	}
+
+	/**
+	 * Takes an event from the free list, growing the arrays if it is empty
+	 */
+	private int allocate() {
+		if (free != -1) {
+			int e = free;
+			free = next[e];
+			return e;
+		}
+		if (allocated == times.length) {
+			int capacity = allocated * 2;
+			times = Arrays.copyOf(times, capacity);
+			types = Arrays.copyOf(types, capacity);
+			as = Arrays.copyOf(as, capacity);
+			bs = Arrays.copyOf(bs, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		return allocated++;
+	}
+
+	/**
+	 * Puts the event back in the free list
+	 */
+	private void release(int e) {
+		next[e] = free;
+		free = e;
+	}
+
+}
@@ -0,0 +1,179 @@
+package kademlia;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes snapshots of the topology while the network is being built, one JSON
+ * object per line (JSON Lines), so that the growth of the network can be followed as it
+ * happens. Every snapshot contains the number of joined nodes, the edges in total and for
+ * every bucket index, the histogram of the lookup depths and the spread of the in degrees.
+ * Taking a snapshot does not pause the construction: the thread completing a join only
+ * copies the counters that are already kept incrementally (the edges by bucket index and
+ * the depth histogram of LookupMetrics), in time independent of n, while the scan of the
+ * in degrees, the formatting and the writing are done by a background thread. When joins
+ * run in parallel, the in degrees are read a little later than the other counters, so
+ * they can include some edges added in the meanwhile
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class TopologySnapshots implements AutoCloseable {
+
+	/* Private Fields */
+
+	private final NodeRegistry nodes;
+	private final LookupMetrics metrics;
+	private final int m;
+	private final BufferedWriter writer;
+	private final ExecutorService background;
+	private final long startNanos;
+	private long captureNanos;
+	private int written;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it creates (or truncates) the file of the snapshots
+	 * @param nodes the registry of the network being built
+	 * @param metrics the metrics of the network being built
+	 * @param m the number of bits of the identifiers
+	 * @param file the file where the snapshots are written
+	 * @throws IOException if the file cannot be created
+	 */
+	public TopologySnapshots(NodeRegistry nodes, LookupMetrics metrics, int m, Path file) throws IOException {
+		this.nodes = nodes;
+		this.metrics = metrics;
+		this.m = m;
+		writer = Files.newBufferedWriter(file);
+		background = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "snapshot-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		startNanos = System.nanoTime();
+	}
+
+	/* Methods */
+
+	/**
+	 * Takes a snapshot of the network, and hands it to the background thread. The caller
+	 * must not take two snapshots at the same time (the coordinator takes them while holding
+	 * its lock)
+	 * @param joined the number of nodes whose join is completed
+	 * @param rpcs the number of RPCs sent up until now
+	 */
+	public void capture(int joined, long rpcs) {
+		long start = System.nanoTime();
+		long millis = (start - startNanos) / 1000000;
+		int registered = nodes.size();
+		long[] bucketEdges = metrics.getBucketEdges(m);
+		Histogram depths = metrics.getHistogram(LookupMetrics.DEPTH);
+		background.execute(() -> write(joined, registered, millis, rpcs, bucketEdges, depths));
+		captureNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Waits for the snapshots taken to be written, and closes the file
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		background.shutdown();
+		try {
+			background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns the milliseconds spent by the building threads to take the snapshots
+	 * @return the time spent in capture
+	 */
+	public double getCaptureMillis() {
+		return captureNanos / 1e6;
+	}
+
+	/**
+	 * Returns the number of snapshots written to the file
+	 * @return the number of snapshots
+	 */
+	public int getWritten() {
+		return written;
+	}
+
+	/**
+	 * Completes a snapshot with the in degrees of the registered nodes and writes it as a line
+	 */
+	private void write(int joined, int registered, long millis, long rpcs, long[] bucketEdges, Histogram depths) {
+		Histogram inDegrees = new Histogram();
+		long sumSquares = 0;
+		int min = Integer.MAX_VALUE;
+		for (int h = 0; h < registered; h++) {
+			int degree = nodes.getInDegree(h);
+			inDegrees.record(degree);
+			sumSquares += (long) degree * degree;
+			min = Math.min(min, degree);
+		}
+		double mean = inDegrees.getMean();
+		double deviation = Math.sqrt(Math.max(0, (double) sumSquares / Math.max(1, registered) - mean * mean));
+
+		long edges = 0;
+		for (long e : bucketEdges)
+			edges += e;
+		StringBuilder line = new StringBuilder(256 + 12 * m);
+		line.append("{\"joined\":").append(joined).append(",\"registered\":").append(registered);
+		line.append(",\"millis\":").append(millis).append(",\"rpcs\":").append(rpcs);
+		line.append(",\"edges\":").append(edges).append(",\"bucketEdges\":");
+		appendArray(line, bucketEdges, 0, bucketEdges.length);
+		long maxDepth = depths.getMax();
+		long[] depthCounts = new long[(int) maxDepth + 1];
+		for (int d = 1; d <= maxDepth; d++)
+			depthCounts[d] = depths.getCountAt(d);
+		line.append(",\"depth\":{\"lookups\":").append(depths.getCount());
+		line.append(String.format(Locale.ROOT, ",\"mean\":%.3f", depths.getMean()));
+		line.append(",\"p50\":").append(depths.getValueAtPercentile(50));
+		line.append(",\"p99\":").append(depths.getValueAtPercentile(99));
+		line.append(",\"max\":").append(maxDepth).append(",\"counts\":");
+		// The counts start from depth 1, the first round of a lookup
+		appendArray(line, depthCounts, 1, depthCounts.length);
+		line.append("},\"inDegree\":{\"min\":").append(registered == 0 ? 0 : min);
+		line.append(String.format(Locale.ROOT, ",\"mean\":%.3f,\"stddev\":%.3f", mean, deviation));
+		line.append(",\"p50\":").append(inDegrees.getValueAtPercentile(50));
+		line.append(",\"p90\":").append(inDegrees.getValueAtPercentile(90));
+		line.append(",\"p99\":").append(inDegrees.getValueAtPercentile(99));
+		line.append(",\"max\":").append(inDegrees.getMax()).append("}}");
+		try {
+			writer.write(line.toString());
+			writer.newLine();
+			// Every snapshot is flushed, so the file can be followed while the network grows
+			writer.flush();
+			written++;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends the values in [from, to) as a JSON array
+	 */
+	private static void appendArray(StringBuilder line, long[] values, int from, int to) {
+		line.append('[');
+		for (int i = from; i < to; i++) {
+			if (i > from)
+				line.append(',');
+			line.append(values[i]);
+		}
+		line.append(']');
+	}
+
+}
@@ -0,0 +1,558 @@
+package kademlia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+/**
+ * This class models a transport where the RPCs between the nodes are UDP datagrams on the
+ * loopback interface, instead of method calls. Every node gets its own endpoint, a
+ * DatagramChannel bound to 127.0.0.1 on an ephemeral port (which becomes the UDP port of
+ * the node), opened the first time the node sends or receives a message. The endpoints are
+ * spread over a few selector threads, each one serving thousands of them: a selector
+ * thread receives the requests addressed to its endpoints and answers them (running
+ * findNode on the node receiving the request, which learns the sender as in any RPC), and
+ * receives the responses to the requests sent from its endpoints, waking up the thread
+ * waiting for them.
+ * The messages have a compact binary encoding (big endian, identifiers on (m + 7) / 8
+ * bytes):
+ * - FIND_NODE:  type, request id, sender id, target id;
+ * - NODES:      type, request id, sender id, count, count contacts (id, IPv4, port);
+ * - PING, PONG: type, request id, sender id.
+ * The contacts are resolved to the nodes by their port, without locks. The buffers are
+ * direct: every selector thread has its own, the other threads take them from a pool.
+ * A request without response within the timeout fails, as if the node were offline (a
+ * datagram can be dropped when a socket buffer is full).
+ * Since every endpoint is an open file and takes an ephemeral port, the transport checks
+ * at the start that the limit of open files of the process and the ephemeral port range
+ * of the system are enough for all the nodes
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class UdpTransport implements AutoCloseable {
+
+	/* Public and Static Fields */
+	public static final byte FIND_NODE = 1;
+	public static final byte NODES = 2;
+	public static final byte PING = 3;
+	public static final byte PONG = 4;
+	public static final long TIMEOUT_MILLIS = 1000;
+
+	/* Private Fields */
+
+	private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+	private static final byte[] LOOPBACK_BYTES = LOOPBACK.getAddress();
+	// The fields of a contact after the identifier: IPv4 address and port
+	private static final int CONTACT_EXTRA = 6;
+	// The open files left to the JVM and to the files of the simulation, and per selector
+	private static final long RESERVED_FILES = 64, FILES_PER_SELECTOR = 4;
+	private static final Path PORT_RANGE = Paths.get("/proc/sys/net/ipv4/ip_local_port_range");
+	// The ephemeral ports suggested by the IANA (49152-65535), if the range is not known
+	private static final int DEFAULT_PORTS = 16384;
+
+	private final Coordinator coordinator;
+	private final NodeRegistry nodes;
+	private final int idBytes, k, bufferSize;
+	private final Loop[] loops;
+	private volatile AtomicReferenceArray<Endpoint> endpoints;
+	// The handle + 1 of the node bound to every port, 0 if none
+	private final AtomicIntegerArray portToHandle;
+	private final ConcurrentHashMap<Integer, Call> calls;
+	private final AtomicInteger nextRequest;
+	private final Queue<ByteBuffer> pool;
+	private final LongAdder sent, received, bytesSent, bytesReceived, timeouts, dropped;
+	private final Histogram roundTrips;
+	private final Object roundTripsLock;
+	private int opened;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it starts the selector threads
+	 * @param coordinator the coordinator of the network
+	 * @param selectors the number of selector threads
+	 * @throws IOException if a selector cannot be opened
+	 * @throws IllegalStateException if the process cannot open an endpoint for every node
+	 */
+	public UdpTransport(Coordinator coordinator, int selectors) throws IOException {
+		this.coordinator = coordinator;
+		nodes = coordinator.getRegistry();
+		checkCapacity(Math.max(coordinator.getN(), nodes.size()), Math.max(1, selectors));
+		idBytes = (int) (coordinator.getM() + 7) / 8;
+		k = (int) coordinator.getK();
+		bufferSize = 1 + 4 + idBytes + 2 + k * (idBytes + CONTACT_EXTRA);
+		endpoints = new AtomicReferenceArray<>(Math.max(16, nodes.size()));
+		portToHandle = new AtomicIntegerArray(65536);
+		calls = new ConcurrentHashMap<>();
+		nextRequest = new AtomicInteger();
+		pool = new ConcurrentLinkedQueue<>();
+		sent = new LongAdder();
+		received = new LongAdder();
+		bytesSent = new LongAdder();
+		bytesReceived = new LongAdder();
+		timeouts = new LongAdder();
+		dropped = new LongAdder();
+		roundTrips = new Histogram();
+		roundTripsLock = new Object();
+		loops = new Loop[Math.max(1, selectors)];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new Loop(Selector.open());
+			Thread thread = new Thread(loops[i], "udp-selector-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/* Methods */
+
+	/**
+	 * Sends a findNode from a node to another one, and waits for the response
+	 * @param from the node sending the request
+	 * @param to the node receiving the request
+	 * @param target the target of the lookup
+	 * @param bestK the buffer where the nodes of the response are written
+	 * @return the number of nodes in the response, -1 if the request timed out
+	 */
+	public int findNode(Node from, Node to, NodeId target, Node[] bestK) {
+		Call call = new Call(bestK);
+		int request = nextRequest.incrementAndGet();
+		calls.put(request, call);
+		ByteBuffer out = takeBuffer();
+		out.put(FIND_NODE).putInt(request);
+		putId(out, from.getId());
+		putId(out, target);
+		send(endpoint(from.getHandle()).channel, out, endpoint(to.getHandle()).address);
+		releaseBuffer(out);
+		return await(request, call);
+	}
+
+	/**
+	 * Pings a node from another one, and waits for the response
+	 * @param from the node sending the ping
+	 * @param to the node pinged
+	 * @return true if the node responded within the timeout
+	 */
+	public boolean ping(Node from, Node to) {
+		Call call = new Call(null);
+		int request = nextRequest.incrementAndGet();
+		calls.put(request, call);
+		ByteBuffer out = takeBuffer();
+		out.put(PING).putInt(request);
+		putId(out, from.getId());
+		send(endpoint(from.getHandle()).channel, out, endpoint(to.getHandle()).address);
+		releaseBuffer(out);
+		return await(request, call) >= 0;
+	}
+
+	/**
+	 * Stops the selector threads and closes all the endpoints
+	 */
+	@Override
+	public void close() {
+		for (Loop loop : loops) {
+			loop.running = false;
+			loop.selector.wakeup();
+		}
+		AtomicReferenceArray<Endpoint> current = endpoints;
+		for (int h = 0; h < current.length(); h++) {
+			Endpoint endpoint = current.get(h);
+			if (endpoint != null) {
+				try {
+					endpoint.channel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a description of the traffic: datagrams, bytes, timeouts and round trips
+	 * @param seconds the seconds over which the rate of the datagrams is computed
+	 * @return the description
+	 */
+	public String describe(double seconds) {
+		Histogram trips;
+		synchronized (roundTripsLock) {
+			trips = new Histogram();
+			trips.add(roundTrips);
+		}
+		return "UDP transport with " + loops.length + " selector threads and " + opened + " endpoints: "
+				+ sent.sum() + " datagrams sent (" + (long) (sent.sum() / seconds) + " per second), " + received.sum()
+				+ " received, " + bytesSent.sum() + " bytes sent (" + bytesSent.sum() / Math.max(1, sent.sum())
+				+ " per datagram), " + timeouts.sum() + " timeouts, " + dropped.sum() + " datagrams dropped, "
+				+ "round trip p50 = " + trips.getValueAtPercentile(50) + " us, p99 = " + trips.getValueAtPercentile(99)
+				+ " us";
+	}
+
+	/**
+	 * Checks that the endpoints of the given number of nodes can be opened: the files the
+	 * process can still open and the ephemeral ports must be enough
+	 */
+	private static void checkCapacity(long count, int selectors) {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof UnixOperatingSystemMXBean) {
+			UnixOperatingSystemMXBean unix = (UnixOperatingSystemMXBean) os;
+			long files = unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount() - RESERVED_FILES
+					- FILES_PER_SELECTOR * selectors;
+			if (count > files)
+				throw new IllegalStateException("the UDP transport needs an open file per node, but only "
+						+ Math.max(0, files) + " more files can be opened for " + count + " nodes (see ulimit -n)");
+		}
+		long ports = ephemeralPorts();
+		if (count > ports)
+			throw new IllegalStateException("the UDP transport needs a port per node, but there are only " + ports
+					+ " ephemeral ports for " + count + " nodes");
+	}
+
+	/**
+	 * Returns the number of ephemeral ports of the system (on Linux, from the range in
+	 * /proc), where the endpoints are bound
+	 */
+	private static long ephemeralPorts() {
+		try {
+			String[] range = Files.readString(PORT_RANGE).trim().split("\\s+");
+			return Long.parseLong(range[1]) - Long.parseLong(range[0]) + 1;
+		} catch (IOException | RuntimeException e) {
+			return DEFAULT_PORTS;
+		}
+	}
+
+	/**
+	 * Waits for the response of a request, or for its timeout
+	 * @return the count of the response, -1 if it timed out
+	 */
+	private int await(int request, Call call) {
+		long start = System.nanoTime();
+		long deadline = start + TIMEOUT_MILLIS * 1000000;
+		while (call.count == Call.PENDING) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				if (calls.remove(request) != null) {
+					timeouts.increment();
+					return -1;
+				}
+				// The response is being delivered right now
+				while (call.count == Call.PENDING)
+					Thread.onSpinWait();
+				break;
+			}
+			LockSupport.parkNanos(call, remaining);
+		}
+		long micros = (System.nanoTime() - start) / 1000;
+		synchronized (roundTripsLock) {
+			roundTrips.record(micros);
+		}
+		return call.count;
+	}
+
+	/**
+	 * Sends a datagram, the buffer is flipped before sending
+	 */
+	private void send(DatagramChannel channel, ByteBuffer out, InetSocketAddress address) {
+		out.flip();
+		int bytes = out.remaining();
+		try {
+			if (channel.send(out, address) == 0) {
+				// The socket buffer is full, the datagram is lost
+				dropped.increment();
+				return;
+			}
+		} catch (IOException e) {
+			dropped.increment();
+			return;
+		}
+		sent.increment();
+		bytesSent.add(bytes);
+	}
+
+	/**
+	 * Returns the endpoint of the node with given handle, opening it the first time
+	 */
+	private Endpoint endpoint(int handle) {
+		AtomicReferenceArray<Endpoint> current = endpoints;
+		if (handle < current.length()) {
+			Endpoint endpoint = current.get(handle);
+			if (endpoint != null)
+				return endpoint;
+		}
+		return open(handle);
+	}
+
+	/**
+	 * Opens the endpoint of a node, binding its channel and handing it to a selector thread
+	 */
+	private synchronized Endpoint open(int handle) {
+		AtomicReferenceArray<Endpoint> current = endpoints;
+		if (handle >= current.length()) {
+			AtomicReferenceArray<Endpoint> bigger = new AtomicReferenceArray<>(Math.max(handle + 1, current.length() * 2));
+			for (int h = 0; h < current.length(); h++)
+				bigger.set(h, current.get(h));
+			endpoints = bigger;
+			current = bigger;
+		}
+		Endpoint endpoint = current.get(handle);
+		if (endpoint != null)
+			return endpoint;
+		DatagramChannel channel = null;
+		try {
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.bind(new InetSocketAddress(LOOPBACK, 0));
+			channel.configureBlocking(false);
+			int port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+			portToHandle.set(port, handle + 1);
+			nodes.getNode(handle).setUdpPort(port);
+			endpoint = new Endpoint(handle, channel, new InetSocketAddress(LOOPBACK, port));
+		} catch (IOException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw new UncheckedIOException("cannot open the endpoint of node " + handle, e);
+		}
+		current.set(handle, endpoint);
+		opened++;
+		Loop loop = loops[handle % loops.length];
+		loop.registrations.add(endpoint);
+		loop.selector.wakeup();
+		return endpoint;
+	}
+
+	/**
+	 * Takes a direct buffer from the pool, allocating it if the pool is empty
+	 */
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buffer = pool.poll();
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool
+	 */
+	private void releaseBuffer(ByteBuffer buffer) {
+		pool.offer(buffer);
+	}
+
+	/**
+	 * Writes the lowest idBytes bytes of the identifier, the most significant first
+	 */
+	private void putId(ByteBuffer buffer, NodeId id) {
+		for (int i = idBytes - 1; i >= 0; i--)
+			buffer.put((byte) (id.word(i >>> 3) >>> ((i & 7) << 3)));
+	}
+
+	/**
+	 * Reads an identifier written by putId
+	 */
+	private NodeId getId(ByteBuffer buffer) {
+		long high = 0, middle = 0, low = 0;
+		for (int i = idBytes - 1; i >= 0; i--) {
+			long b = (buffer.get() & 0xFFL) << ((i & 7) << 3);
+			if (i >= 16)
+				high |= b;
+			else if (i >= 8)
+				middle |= b;
+			else
+				low |= b;
+		}
+		return new NodeId(high, middle, low);
+	}
+
+	/**
+	 * The endpoint of a node: its channel and its address
+	 */
+	private static final class Endpoint {
+		final int handle;
+		final DatagramChannel channel;
+		final InetSocketAddress address;
+
+		Endpoint(int handle, DatagramChannel channel, InetSocketAddress address) {
+			this.handle = handle;
+			this.channel = channel;
+			this.address = address;
+		}
+	}
+
+	/**
+	 * A request waiting for its response
+	 */
+	private static final class Call {
+		static final int PENDING = -2;
+		final Thread waiter;
+		final Node[] buffer;
+		volatile int count;
+
+		Call(Node[] buffer) {
+			this.waiter = Thread.currentThread();
+			this.buffer = buffer;
+			count = PENDING;
+		}
+	}
+
+	/**
+	 * A selector thread, with its own direct buffers
+	 */
+	private final class Loop implements Runnable {
+		final Selector selector;
+		final Queue<Endpoint> registrations;
+		final ByteBuffer in, out;
+		final Node[] bestK;
+		final Queue<Node> traveled;
+		volatile boolean running;
+
+		Loop(Selector selector) {
+			this.selector = selector;
+			registrations = new ConcurrentLinkedQueue<>();
+			in = ByteBuffer.allocateDirect(bufferSize);
+			out = ByteBuffer.allocateDirect(bufferSize);
+			bestK = new Node[k];
+			traveled = new ArrayDeque<>(1);
+			running = true;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					Endpoint registration;
+					while ((registration = registrations.poll()) != null)
+						registration.channel.register(selector, SelectionKey.OP_READ, registration);
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (key.isValid() && key.isReadable())
+							receiveAll((Endpoint) key.attachment());
+					}
+				}
+				selector.close();
+			} catch (IOException e) {
+				if (running)
+					e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Serves all the datagrams waiting on the endpoint
+		 */
+		private void receiveAll(Endpoint endpoint) throws IOException {
+			while (true) {
+				in.clear();
+				InetSocketAddress from = (InetSocketAddress) endpoint.channel.receive(in);
+				if (from == null)
+					return;
+				in.flip();
+				received.increment();
+				bytesReceived.add(in.remaining());
+				int sender = portToHandle.get(from.getPort()) - 1;
+				if (sender < 0 || in.remaining() < 5 + idBytes)
+					continue;
+				byte type = in.get();
+				int request = in.getInt();
+				if (!getId(in).equals(nodes.getId(sender)))
+					continue;
+				try {
+					switch (type) {
+					case FIND_NODE:
+					case PING:
+						serve(endpoint, type, request, sender, from);
+						break;
+					case NODES:
+					case PONG:
+						complete(type, request);
+						break;
+					default:
+						break;
+					}
+				} catch (RuntimeException e) {
+					// The datagram is dropped (for example, the endpoint of a contact in the
+					// response cannot be opened), but the selector thread keeps serving the others
+					dropped.increment();
+				}
+			}
+		}
+
+		/**
+		 * Answers a request received by the endpoint, an offline node does not answer
+		 */
+		private void serve(Endpoint endpoint, byte type, int request, int sender, InetSocketAddress from) {
+			NodeDescriptor receiver = coordinator.askRPCInstance(endpoint.handle);
+			if (!receiver.getNode().isAlive())
+				return;
+			out.clear();
+			if (type == PING) {
+				receiver.handlePing(nodes.getNode(sender));
+				out.put(PONG).putInt(request);
+				putId(out, receiver.getNodeId());
+			} else {
+				NodeId target = getId(in);
+				traveled.clear();
+				traveled.add(nodes.getNode(sender));
+				int found = receiver.findNode(target, traveled, bestK);
+				out.put(NODES).putInt(request);
+				putId(out, receiver.getNodeId());
+				out.putShort((short) found);
+				for (int i = 0; i < found; i++) {
+					putId(out, bestK[i].getId());
+					out.put(LOOPBACK_BYTES).putShort((short) endpoint(bestK[i].getHandle()).address.getPort());
+				}
+			}
+			send(endpoint.channel, out, from);
+		}
+
+		/**
+		 * Delivers a response to the thread waiting for it, if it did not time out
+		 */
+		private void complete(byte type, int request) {
+			Call call = calls.remove(request);
+			if (call == null)
+				return;
+			int count = 0;
+			if (type == NODES) {
+				int contacts = in.getShort();
+				for (int i = 0; i < contacts; i++) {
+					NodeId id = getId(in);
+					in.position(in.position() + 4);
+					int handle = portToHandle.get(in.getShort() & 0xFFFF) - 1;
+					// A contact that does not match the node bound to its port is skipped
+					if (handle >= 0 && nodes.getId(handle).equals(id))
+						call.buffer[count++] = nodes.getNode(handle);
+				}
+			}
+			call.count = count;
+			LockSupport.unpark(call.waiter);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package kademlia;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Just a class providing some utility methods in the form of public static ones
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Utils {
+	
+	/* private fields */
+	// A MessageDigest is not thread safe, so every thread (for example the ones of many
+	// coordinators running at the same time) gets its own SHA1 instance
+	private static ThreadLocal<MessageDigest> messageDigest;
+	private static Random rand;
+	
+	static {
+		messageDigest = ThreadLocal.withInitial(() -> {
+			try {
+				return MessageDigest.getInstance("SHA1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA1 not available", e);
+			}
+		});
+		rand = new Random();
+	}
+	
+	/**
+	 * this method takes a list (the current kBest), the potential new better
+	 * nodes, and the target id of the query
+	 * @param kClosest is the current best k contacts known
+	 * @param toAdd is the new list of potential candidates
+	 * @param k is the maximum amount of elements
+	 * @param id the target id of the query
+	 */
+	public static void updateKClosest(List<Node> kClosest, List<Node> toAdd, NodeId id, long k) {
+		// I add all the nodes except duplicates
+		for(Node n : toAdd) {
+			if(! kClosest.contains(n))
+				kClosest.add(n);
+		}
+		
+		// I sort the collection and take the best k, truncating the list in place
+		// (the caller must see the truncation)
+		kClosest.sort((n1, n2) -> id.compareDistance(n1.getId(), n2.getId()));
+		if (kClosest.size() > k)
+			kClosest.subList((int) k, kClosest.size()).clear();
+
+	}
+
+	/**
+	 * Builds a random id such that the distance between nodeId and the generated one falls into
+	 * the bucket passed as parameter for the routing table of nodeId
+	 * @param bucket the requested bucket for the new id to fall into
+	 * @param nodeId the nodeId issuing the request
+	 * @return the new random ID
+	 */
+	public static NodeId generateIDInRightBucket(int bucket, NodeId nodeId) {
+		return generateIDInRightBucket(bucket, nodeId, rand);
+	}
+
+	/**
+	 * Builds a random id such that the distance between nodeId and the generated one falls into
+	 * the bucket passed as parameter for the routing table of nodeId, using the given random source
+	 * @param bucket the requested bucket for the new id to fall into
+	 * @param nodeId the nodeId issuing the request
+	 * @param rand the random source
+	 * @return the new random ID
+	 */
+	public static NodeId generateIDInRightBucket(int bucket, NodeId nodeId, Random rand) {
+		
+		// What I need to do is keep the prefix identical, swap the bucket level bit and
+		// apply a random mask to the next bits (a random delay distributed in [0, 2^bucket)),
+		// this way I'm sure that the element will go in the right bucket
+		return nodeId.randomInBucket(bucket, rand);
+	}
+
+	/**
+	 * Computes the SHA1 of the input with the MessageDigest of the calling thread
+	 * @param input the bytes to hash
+	 * @return the 20 bytes of the SHA1
+	 */
+	public static byte[] sha1(byte[] input) {
+		return messageDigest.get().digest(input);
+	}
+
+	/**
+	 * This method generates a new node, by creating a random IP address, calculating its sha1
+	 * function. This output value is a 160 bits value, but my identifier space is [0, 2^m)
+	 * So this method makes the modulo 2^m in order to obtain a value in the correct range
+	 * @param m the m system wide parameter (number of bits of the id)
+	 * @return the new generated node
+	 */
+	public static Node generateNewNode(long m) {
+		return generateNewNode(m, rand);
+	}
+
+	/**
+	 * This method generates a new node as generateNewNode(m), drawing the IP address from
+	 * the given random source
+	 * @param m the m system wide parameter (number of bits of the id)
+	 * @param rand the random source
+	 * @return the new generated node
+	 */
+	public static Node generateNewNode(long m, Random rand) {
+		String address = rand.nextInt(256) + "." + rand.nextInt(256) + "." + rand.nextInt(256) + "." + rand.nextInt(256);
+		// Generated a new address, I SHA1 it, and compute the id (as the sha output modulo 2^m,
+		// that is its lowest m bits)
+		byte[] output = sha1(address.getBytes());
+		NodeId id = NodeId.fromBytes(output, (int) m);
+		
+		return new Node(id, address);
+	}
+
+}
@@ -0,0 +1,241 @@
+package kademlia;
+
+/**
+ * This class models the values stored on a node by the STORE RPCs. Every value is a long
+ * (the simulation does not need a payload) with the time it expires and a flag telling
+ * if it is a copy cached along the path of a lookup, instead of one of the k replicas.
+ * The entries are kept in a single array of longs, 5 per entry (the 3 words of the key,
+ * the value and the expiry time shifted left with the cached flag in the lowest bit, 0
+ * for an empty slot), as an open addressing hash table with linear probing: no object is
+ * allocated per entry, and a node without values has no table at all. The expired
+ * entries are removed when they are found by a get, and when the table grows.
+ * All the methods are synchronized, since the nodes answer RPCs from several threads
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class ValueStore {
+
+	/* Private Fields */
+
+	private static final int STRIDE = 5;
+	private static final int VALUE = 3, META = 4;
+	private static final int INITIAL_CAPACITY = 4;
+	private static final long[] EMPTY = new long[0];
+	private static final long MAX_EXPIRY = Long.MAX_VALUE >>> 1;
+
+	private long[] slots;
+	private int size;
+	private int cached;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty store
+	 */
+	public ValueStore() {
+		slots = EMPTY;
+	}
+
+	/* Methods */
+
+	/**
+	 * Stores a value. A cached copy does not replace a replica of the same key, it only
+	 * extends its expiry time, while a replica replaces a cached copy
+	 * @param key the key
+	 * @param value the value
+	 * @param now the current time, the expired entries met while growing are dropped
+	 * @param expiry the time when the value expires
+	 * @param isCached true for a copy cached along the path of a lookup
+	 */
+	public synchronized void put(NodeId key, long value, long now, long expiry, boolean isCached) {
+		if (slots.length == 0 || (size + 1) * 4 > capacity() * 3)
+			grow(now);
+		long meta = (Math.max(1, Math.min(expiry, MAX_EXPIRY)) << 1) | (isCached ? 1 : 0);
+		int mask = capacity() - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int base = i * STRIDE;
+			long old = slots[base + META];
+			if (old == 0) {
+				setKey(base, key);
+				slots[base + VALUE] = value;
+				slots[base + META] = meta;
+				size++;
+				if (isCached)
+					cached++;
+				return;
+			}
+			if (!matches(base, key))
+				continue;
+			if (isCached && (old & 1) == 0) {
+				// A replica stays a replica
+				slots[base + META] = Math.max(old, meta & ~1L);
+				return;
+			}
+			if ((old & 1) != 0 && !isCached)
+				cached--;
+			slots[base + VALUE] = value;
+			slots[base + META] = meta;
+			return;
+		}
+	}
+
+	/**
+	 * Looks up a value, removing it if it expired
+	 * @param key the key
+	 * @param now the current time
+	 * @param out the buffer where the value (in out[0]) and the cached flag (in out[1], 1
+	 * for a cached copy) are written, if the value is found
+	 * @return true if the value is stored and did not expire
+	 */
+	public synchronized boolean get(NodeId key, long now, long[] out) {
+		if (size == 0)
+			return false;
+		int mask = capacity() - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			int base = i * STRIDE;
+			long meta = slots[base + META];
+			if (meta == 0)
+				return false;
+			if (!matches(base, key))
+				continue;
+			if ((meta >>> 1) <= now) {
+				remove(i);
+				return false;
+			}
+			out[0] = slots[base + VALUE];
+			out[1] = meta & 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of values stored, including the expired ones not removed yet
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of copies cached along the paths of the lookups
+	 * @return the number of cached entries
+	 */
+	public synchronized int getCached() {
+		return cached;
+	}
+
+	/**
+	 * Returns the memory used by the table
+	 * @return the size of the table in bytes
+	 */
+	public synchronized long getBytes() {
+		return 8L * slots.length;
+	}
+
+	/**
+	 * Removes all the values and releases the table
+	 */
+	public synchronized void clear() {
+		slots = EMPTY;
+		size = 0;
+		cached = 0;
+	}
+
+	/**
+	 * Returns the number of slots of the table
+	 */
+	private int capacity() {
+		return slots.length / STRIDE;
+	}
+
+	/**
+	 * Rebuilds the table without the expired entries, doubling it until the entries still
+	 * alive fill at most half of it
+	 */
+	private void grow(long now) {
+		long[] old = slots;
+		int alive = 0;
+		for (int base = 0; base < old.length; base += STRIDE) {
+			if (old[base + META] != 0 && (old[base + META] >>> 1) > now)
+				alive++;
+		}
+		int capacity = Math.max(INITIAL_CAPACITY, capacity());
+		while ((alive + 1) * 2 > capacity)
+			capacity *= 2;
+		slots = new long[capacity * STRIDE];
+		size = 0;
+		cached = 0;
+		int mask = capacity - 1;
+		for (int from = 0; from < old.length; from += STRIDE) {
+			long meta = old[from + META];
+			if (meta == 0 || (meta >>> 1) <= now)
+				continue;
+			int i = mix(old[from], old[from + 1], old[from + 2]) & mask;
+			while (slots[i * STRIDE + META] != 0)
+				i = (i + 1) & mask;
+			System.arraycopy(old, from, slots, i * STRIDE, STRIDE);
+			size++;
+			if ((meta & 1) != 0)
+				cached++;
+		}
+	}
+
+	/**
+	 * Empties the slot, shifting back the following entries of the same cluster so that
+	 * the linear probing does not need tombstones
+	 */
+	private void remove(int slot) {
+		int mask = capacity() - 1;
+		if ((slots[slot * STRIDE + META] & 1) != 0)
+			cached--;
+		size--;
+		int hole = slot;
+		for (int i = (slot + 1) & mask;; i = (i + 1) & mask) {
+			int base = i * STRIDE;
+			if (slots[base + META] == 0)
+				break;
+			int home = mix(slots[base], slots[base + 1], slots[base + 2]) & mask;
+			// The entry can fill the hole if its home is not in (hole, i], cyclically
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				System.arraycopy(slots, base, slots, hole * STRIDE, STRIDE);
+				hole = i;
+			}
+		}
+		slots[hole * STRIDE + META] = 0;
+	}
+
+	/**
+	 * Writes the key in the entry starting at base
+	 */
+	private void setKey(int base, NodeId key) {
+		slots[base] = key.word(2);
+		slots[base + 1] = key.word(1);
+		slots[base + 2] = key.word(0);
+	}
+
+	/**
+	 * Tells if the entry starting at base has the given key
+	 */
+	private boolean matches(int base, NodeId key) {
+		return slots[base + 2] == key.word(0) && slots[base + 1] == key.word(1) && slots[base] == key.word(2);
+	}
+
+	/**
+	 * Returns the hash of the key
+	 */
+	private static int hash(NodeId key) {
+		return mix(key.word(2), key.word(1), key.word(0));
+	}
+
+	/**
+	 * Mixes the 3 words of a key, so that also the keys of few bits are spread over the table
+	 */
+	private static int mix(long high, long middle, long low) {
+		long z = low + 0x9E3779B97F4A7C15L * (middle + 0x9E3779B97F4A7C15L * high);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (int) (z ^ (z >>> 31));
+	}
+
+}
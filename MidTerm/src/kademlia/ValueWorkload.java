@@ -0,0 +1,299 @@
+package kademlia;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class models a workload of the key-value layer of Kademlia on a network already
+ * built: a set of keys is stored (put) by publisher nodes on the k closest nodes to the
+ * key, and then read (get) with value lookups from random nodes, on a virtual clock (one
+ * tick per millisecond) driven by a TimingWheel:
+ * - the gets are a Poisson process, and their keys are drawn from a zipf distribution, so
+ *   a few hot keys are read most of the times;
+ * - every publisher republishes its key periodically, with a new node lookup, so that the
+ *   value reaches the nodes that became the k closest meanwhile, and renews its expiry;
+ * - with the path caching, every get that finds the value caches it on the closest node
+ *   that responded without it (see NodeDescriptor.valueLookup).
+ * The same workload (publishers, values, origins, keys and times) runs once without and
+ * once with the path caching (or only one of them), starting each time with no value
+ * stored, and a row of the table reports the cost of the puts and of the gets in hops
+ * (rounds) and RPCs, the fraction of the gets that found the value and that were served
+ * by a cached copy, the same for the hot keys, and the values stored at the end. As in
+ * the Workload, the nodes answering the RPCs learn about the senders, so the second run
+ * finds routing tables slightly different. The workload runs on a single thread, so it is
+ * reproducible given the seed
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class ValueWorkload {
+
+	/* Private Fields */
+
+	// The types of the events
+	private static final int PUBLISH = 0, GET = 1;
+	private static final long MILLIS = 1000;
+
+	private int puts;
+	private long gets;
+	private double getRate;
+	private double republish;
+	private double expire;
+	private double cacheTime;
+	private String caching;
+	private double exponent;
+	private int hot;
+
+	private NodeRegistry nodes;
+	private TimingWheel wheel;
+	private Random rand;
+	private NodeId[] keys;
+	private long[] expected;
+	private int[] publishers;
+	private int[] online;
+	private int onlineCount;
+	private Workload.Zipf ranks;
+	private long cacheMillis;
+	private long[] value;
+	private long remaining;
+	private LookupMetrics putMetrics, getMetrics, hotMetrics;
+	private long stores, found, fromCache, hotFound, hotFromCache;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty workload (no keys) with the default parameters
+	 */
+	public ValueWorkload() {
+		puts = 0;
+		gets = 100000;
+		getRate = 100;
+		republish = 3600;
+		expire = 86400;
+		cacheTime = 3600;
+		caching = "both";
+		exponent = 1.0;
+		hot = 10;
+	}
+
+	/* Methods */
+
+	/**
+	 * Applies a command line option of the workload, if it is one of them (all the times
+	 * are virtual seconds):
+	 * --puts=P         the keys stored, 0 (default) means no workload
+	 * --gets=G         the gets (default 100000)
+	 * --getrate=R      the gets per second (default 100)
+	 * --republish=S    the interval between two republishes of a key (default 3600)
+	 * --expire=S       the time a value lasts without being republished (default 86400)
+	 * --cachetime=S    the time a cached copy lasts on the closest node to the key, the
+	 *                  farther ones last less (default 3600)
+	 * --pathcache=C    off, on or both (default), the runs with and without path caching
+	 * --kvzipf=S       the exponent of the zipf distribution of the keys read (default 1.0)
+	 * --hot=H          the most read keys reported as hot keys (default 10)
+	 * @param option the option, in the form "--name=value"
+	 * @return true if the option is one of the workload, false otherwise
+	 */
+	public boolean applyOption(String option) {
+		if (!option.contains("="))
+			return false;
+		String name = option.substring(0, option.indexOf('='));
+		String value = option.substring(option.indexOf('=') + 1);
+		switch (name) {
+		case "--puts":
+			puts = Integer.parseInt(value);
+			break;
+		case "--gets":
+			gets = Long.parseLong(value);
+			break;
+		case "--getrate":
+			getRate = positive(name, value);
+			break;
+		case "--republish":
+			republish = positive(name, value);
+			break;
+		case "--expire":
+			expire = positive(name, value);
+			break;
+		case "--cachetime":
+			cacheTime = positive(name, value);
+			break;
+		case "--pathcache":
+			if (!value.equals("off") && !value.equals("on") && !value.equals("both"))
+				throw new IllegalArgumentException("unknown path caching mode " + value);
+			caching = value;
+			break;
+		case "--kvzipf":
+			exponent = Double.parseDouble(value);
+			break;
+		case "--hot":
+			hot = Integer.parseInt(value);
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of keys of the workload
+	 * @return the keys, 0 if there is no workload
+	 */
+	public int getPuts() {
+		return puts;
+	}
+
+	/**
+	 * Runs the workload on the network of the coordinator, which must be built, once for
+	 * every path caching mode, and displays a row for each of them
+	 * @param coordinator the coordinator of the network
+	 */
+	public void run(Coordinator coordinator) {
+		nodes = coordinator.getRegistry();
+		int m = (int) coordinator.getM();
+		online = new int[nodes.size()];
+		onlineCount = 0;
+		for (int h = 0; h < online.length; h++) {
+			if (nodes.getNode(h).isAlive())
+				online[onlineCount++] = h;
+		}
+		if (onlineCount == 0)
+			throw new IllegalStateException("no node is online");
+		ranks = new Workload.Zipf(puts, exponent);
+		value = new long[2];
+
+		System.out.println("=========== Values ===========");
+		System.out.println(puts + " keys, " + gets + " gets (" + getRate + " per second, zipf s = " + exponent
+				+ "), republish every " + republish + " s, expire after " + expire + " s, cached copies last up to "
+				+ cacheTime + " s, " + onlineCount + " nodes online out of " + nodes.size());
+		System.out.printf("%-6s %9s %9s %9s %9s %9s %9s %7s %7s %9s %9s %7s %7s %9s %9s %9s%n", "cache", "put hops",
+				"put RPCs", "get hops", "hops p99", "get RPCs", "RPCs p99", "found%", "cache%", "hot hops", "hot RPCs",
+				"hfound%", "hcache%", "values", "cached", "bytes");
+		long startTime = System.nanoTime();
+		long events = 0;
+		for (String mode : caching.equals("both") ? new String[] { "off", "on" } : new String[] { caching }) {
+			boolean cache = mode.equals("on");
+			events += runOnce(coordinator, m, cache);
+
+			long values = 0, cached = 0, bytes = 0;
+			for (int h = 0; h < nodes.size(); h++) {
+				ValueStore store = nodes.get(h).getValues();
+				values += store.size();
+				cached += store.getCached();
+				bytes += store.getBytes();
+			}
+			Histogram getHops = new Histogram(), getRpcs = new Histogram();
+			getHops.add(getMetrics.getHistogram(LookupMetrics.DEPTH));
+			getHops.add(hotMetrics.getHistogram(LookupMetrics.DEPTH));
+			getRpcs.add(getMetrics.getHistogram(LookupMetrics.RPCS));
+			getRpcs.add(hotMetrics.getHistogram(LookupMetrics.RPCS));
+			long publishes = putMetrics.getLookups(), hotGets = hotMetrics.getLookups();
+			System.out.printf(Locale.ROOT,
+					"%-6s %9.2f %9.2f %9.2f %9d %9.2f %9d %7.2f %7.2f %9.2f %9.2f %7.2f %7.2f %9d %9d %9d%n", mode,
+					putMetrics.getHistogram(LookupMetrics.DEPTH).getMean(),
+					putMetrics.getHistogram(LookupMetrics.RPCS).getMean() + (double) stores / Math.max(1, publishes),
+					getHops.getMean(), getHops.getValueAtPercentile(99), getRpcs.getMean(),
+					getRpcs.getValueAtPercentile(99), 100.0 * found / Math.max(1, gets),
+					100.0 * fromCache / Math.max(1, gets), hotMetrics.getHistogram(LookupMetrics.DEPTH).getMean(),
+					hotMetrics.getHistogram(LookupMetrics.RPCS).getMean(), 100.0 * hotFound / Math.max(1, hotGets),
+					100.0 * hotFromCache / Math.max(1, hotGets), values, cached, bytes);
+		}
+		double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+		System.out.println(events + " events in " + Math.round(seconds * 1000) / 1000.0 + " seconds ("
+				+ (long) (events / seconds) + " events per second), put RPCs include the stores");
+		System.out.println("=========== End Values ===========");
+	}
+
+	/**
+	 * Runs the workload once, from no value stored
+	 * @return the number of events fired
+	 */
+	private long runOnce(Coordinator coordinator, int m, boolean cache) {
+		for (int h = 0; h < nodes.size(); h++)
+			nodes.get(h).getValues().clear();
+		rand = new Random(coordinator.getSeed());
+		wheel = new TimingWheel();
+		putMetrics = new LookupMetrics();
+		getMetrics = new LookupMetrics();
+		hotMetrics = new LookupMetrics();
+		stores = found = fromCache = hotFound = hotFromCache = 0;
+		cacheMillis = cache ? Math.round(cacheTime * MILLIS) : 0;
+
+		// The keys are published at the start, and then republished periodically
+		keys = new NodeId[puts];
+		expected = new long[puts];
+		publishers = new int[puts];
+		for (int i = 0; i < puts; i++) {
+			keys[i] = new NodeId(rand.nextLong(), rand.nextLong(), rand.nextLong()).mask(m);
+			expected[i] = rand.nextLong();
+			publishers[i] = online[rand.nextInt(onlineCount)];
+			wheel.schedule(0, PUBLISH, i, 0);
+		}
+		remaining = gets;
+		if (remaining > 0)
+			wheel.schedule(exponential(1 / getRate), GET, 0, 0);
+		return wheel.run(Long.MAX_VALUE - 1, this::handle);
+	}
+
+	/**
+	 * Handles an event of the wheel, the argument of PUBLISH is the index of the key. The
+	 * republishes stop with the last get, so that the wheel empties
+	 */
+	private void handle(int type, int a, int b) {
+		long now = wheel.now();
+		switch (type) {
+		case PUBLISH:
+			if (remaining == 0)
+				break;
+			stores += nodes.get(publishers[a]).put(keys[a], expected[a], now, now + Math.round(expire * MILLIS),
+					putMetrics);
+			wheel.schedule(now + Math.round(republish * MILLIS), PUBLISH, a, 0);
+			break;
+		case GET:
+			get(now);
+			if (--remaining > 0)
+				wheel.schedule(now + exponential(1 / getRate), GET, 0, 0);
+			break;
+		default:
+			throw new IllegalStateException("unknown event type " + type);
+		}
+	}
+
+	/**
+	 * A random node reads a key drawn from the zipf distribution
+	 */
+	private void get(long now) {
+		int rank = ranks.sample(rand);
+		boolean isHot = rank < hot;
+		NodeDescriptor origin = nodes.get(online[rand.nextInt(onlineCount)]);
+		boolean hit = origin.valueLookup(keys[rank], now, cacheMillis, value, isHot ? hotMetrics : getMetrics)
+				&& value[0] == expected[rank];
+		if (!hit)
+			return;
+		found++;
+		fromCache += value[1];
+		if (isHot) {
+			hotFound++;
+			hotFromCache += value[1];
+		}
+	}
+
+	/**
+	 * Returns a delay drawn from the exponential distribution, in milliseconds
+	 * @param mean the mean in seconds
+	 */
+	private long exponential(double mean) {
+		return Math.round(-mean * MILLIS * Math.log(1 - rand.nextDouble()));
+	}
+
+	/**
+	 * Parses the value of an option that must be positive
+	 */
+	private static double positive(String name, String value) {
+		double parsed = Double.parseDouble(value);
+		if (parsed <= 0)
+			throw new IllegalArgumentException(name + " must be positive");
+		return parsed;
+	}
+
+}
@@ -0,0 +1,335 @@
+package kademlia;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class models a workload of lookups replayed against a network already built, to
+ * measure its throughput. Every lookup starts from an origin node and looks for a target
+ * identifier, both drawn from configurable distributions:
+ * - origins: uniform among the nodes, or zipf (a few nodes issue most of the lookups);
+ * - targets: uniform identifiers, zipf among a set of hot keys (a few keys are looked up
+ *   most of the times), or the identifiers of a file (one decimal identifier per line,
+ *   replayed in order and from the start again when they are over).
+ * The lookups are split among worker threads, and each one is recorded in its own
+ * metrics (not in the ones of the construction), together with its latency. The lookups
+ * are verified against the true k closest nodes to the target, found by an XorIndex of
+ * all the nodes online (after a churn simulation, the offline ones are neither origins
+ * nor in the index), giving the success rate (the lookup found exactly the k closest nodes)
+ * and the recall (the fraction of the k closest nodes found).
+ * As in the construction, the nodes answering a findNode learn about the nodes that
+ * queried them, so the routing tables keep changing during the workload
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class Workload {
+
+	/* Private Fields */
+
+	private long lookups;
+	private String origins;
+	private String targets;
+	private double exponent;
+	private int hotKeys;
+	private int threads;
+	private int verifyEvery;
+	private Long seed;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds an empty workload (no lookups) with uniform origins and targets
+	 */
+	public Workload() {
+		lookups = 0;
+		origins = "uniform";
+		targets = "uniform";
+		exponent = 1.0;
+		hotKeys = 1000;
+		threads = Runtime.getRuntime().availableProcessors();
+		verifyEvery = 1;
+		seed = null;
+	}
+
+	/* Methods */
+
+	/**
+	 * Applies a command line option of the workload, if it is one of them:
+	 * --lookups=L    the number of lookups, 0 (default) means no workload
+	 * --origins=O    uniform (default) or zipf
+	 * --targets=T    uniform (default), zipf, or file:F to read the identifiers from F
+	 * --zipf=S       the exponent of the zipf distributions (default 1.0)
+	 * --hotkeys=H    the number of hot keys of the zipf targets (default 1000)
+	 * --workers=W    the number of threads running the lookups (default one per core)
+	 * --verify=R     every R-th lookup is verified against the true k closest (default 1,
+	 *                0 disables the verification)
+	 * @param option the option, in the form "--name=value"
+	 * @return true if the option is one of the workload, false otherwise
+	 */
+	public boolean applyOption(String option) {
+		if (!option.contains("="))
+			return false;
+		String name = option.substring(0, option.indexOf('='));
+		String value = option.substring(option.indexOf('=') + 1);
+		switch (name) {
+		case "--lookups":
+			lookups = Long.parseLong(value);
+			break;
+		case "--origins":
+			if (!value.equals("uniform") && !value.equals("zipf"))
+				throw new IllegalArgumentException("unknown origin distribution " + value);
+			origins = value;
+			break;
+		case "--targets":
+			if (!value.equals("uniform") && !value.equals("zipf") && !value.startsWith("file:"))
+				throw new IllegalArgumentException("unknown target distribution " + value);
+			targets = value;
+			break;
+		case "--zipf":
+			exponent = Double.parseDouble(value);
+			break;
+		case "--hotkeys":
+			hotKeys = Integer.parseInt(value);
+			break;
+		case "--workers":
+			threads = Math.max(1, Integer.parseInt(value));
+			break;
+		case "--verify":
+			verifyEvery = Integer.parseInt(value);
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of lookups of the workload
+	 * @return the number of lookups
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Sets the seed of the workload, by default the seed of the simulation is used
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Runs the workload against the network of the coordinator, which must be built, and
+	 * displays its throughput, the percentiles of its metrics and the accuracy of the lookups
+	 * @param coordinator the coordinator of the network
+	 * @throws IOException if the file of the targets cannot be read
+	 */
+	public void run(Coordinator coordinator) throws IOException {
+		NodeRegistry nodes = coordinator.getRegistry();
+		int m = (int) coordinator.getM(), k = (int) coordinator.getK();
+		Random root = new Random((seed != null) ? seed : coordinator.getSeed());
+
+		// The hot keys and the origins are ranked once, the ranks are then drawn by the workers
+		NodeId[] keys = null;
+		if (targets.equals("zipf")) {
+			keys = new NodeId[hotKeys];
+			for (int i = 0; i < hotKeys; i++)
+				keys[i] = randomId(m, root);
+		} else if (targets.startsWith("file:")) {
+			List<NodeId> read = new ArrayList<>();
+			for (String line : Files.readAllLines(Paths.get(targets.substring(5)))) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					read.add(NodeId.valueOf(new BigInteger(line)).mask(m));
+			}
+			if (read.isEmpty())
+				throw new IllegalArgumentException("no identifier in " + targets.substring(5));
+			keys = read.toArray(new NodeId[0]);
+		}
+		Zipf keyRanks = targets.equals("zipf") ? new Zipf(hotKeys, exponent) : null;
+		// Only the nodes online (all of them, unless the churn simulation ran) are origins and targets
+		int[] online = new int[nodes.size()];
+		int count = 0;
+		for (int h = 0; h < online.length; h++) {
+			if (nodes.getNode(h).isAlive())
+				online[count++] = h;
+		}
+		int onlineCount = count;
+		if (onlineCount == 0)
+			throw new IllegalStateException("no node is online");
+		int[] originOfRank = online;
+		Zipf originRanks = null;
+		if (origins.equals("zipf")) {
+			// The ranks are given to the nodes at random, so the hot origins are not the oldest nodes
+			originOfRank = Arrays.copyOf(online, onlineCount);
+			for (int i = 0; i < originOfRank.length; i++) {
+				int j = root.nextInt(i + 1);
+				int swap = originOfRank[i];
+				originOfRank[i] = originOfRank[j];
+				originOfRank[j] = swap;
+			}
+			originRanks = new Zipf(onlineCount, exponent);
+		}
+
+		long indexStart = System.nanoTime();
+		XorIndex index = (verifyEvery > 0) ? new XorIndex(nodes, online, onlineCount) : null;
+		double indexSeconds = (System.nanoTime() - indexStart) / 1e9;
+
+		LookupMetrics metrics = new LookupMetrics();
+		Histogram latencies = new Histogram();
+		LongAdder verified = new LongAdder(), exact = new LongAdder(), recalled = new LongAdder();
+		int workers = (int) Math.max(1, Math.min(threads, lookups));
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		long startTime = System.nanoTime();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int w = 0; w < workers; w++) {
+				long from = lookups * w / workers, to = lookups * (w + 1) / workers;
+				Random rand = new Random(root.nextLong());
+				NodeId[] workerKeys = keys;
+				int[] workerOrigins = originOfRank;
+				Zipf workerOriginRanks = originRanks;
+				futures.add(pool.submit(() -> {
+					int[] truth = new int[k];
+					for (long i = from; i < to; i++) {
+						NodeDescriptor origin = nodes.get(workerOrigins[(workerOriginRanks == null)
+								? rand.nextInt(onlineCount) : workerOriginRanks.sample(rand)]);
+						NodeId target;
+						if (keyRanks != null)
+							target = workerKeys[keyRanks.sample(rand)];
+						else if (workerKeys != null)
+							target = workerKeys[(int) (i % workerKeys.length)];
+						else
+							target = randomId(m, rand);
+
+						long lookupStart = System.nanoTime();
+						List<Node> result = origin.nodeLookup(target, metrics);
+						latencies.record((System.nanoTime() - lookupStart) / 1000);
+
+						if (verifyEvery > 0 && i % verifyEvery == 0) {
+							int closest = index.closest(target, truth);
+							int found = 0;
+							for (Node node : result) {
+								for (int c = 0; c < closest; c++) {
+									if (truth[c] == node.getHandle()) {
+										found++;
+										break;
+									}
+								}
+							}
+							verified.increment();
+							recalled.add(found * 1000000L / Math.max(1, closest));
+							if (found == closest)
+								exact.increment();
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while running the workload", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a lookup of the workload failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+
+		System.out.println("=========== Workload ===========");
+		System.out.println(lookups + " lookups from " + origins + " origins to " + describeTargets() + " targets, with "
+				+ workers + " threads, in " + Math.round(seconds * 1000) / 1000.0 + " seconds ("
+				+ (long) (lookups / seconds) + " lookups per second)");
+		System.out.printf("%-38s %10s %8s %6s %6s %6s %6s %6s%n", "", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+		for (int i = 0; i < LookupMetrics.NAMES.length; i++)
+			printPercentiles(LookupMetrics.NAMES[i], metrics.getHistogram(i));
+		printPercentiles("Latency (microseconds)", latencies);
+		long v = verified.sum();
+		if (v > 0) {
+			System.out.println("Verified lookups = " + v + " (one every " + verifyEvery + "), exact k closest = "
+					+ String.format(Locale.ROOT, "%.2f%%", 100.0 * exact.sum() / v) + ", mean recall = "
+					+ String.format(Locale.ROOT, "%.2f%%", recalled.sum() / 10000.0 / v));
+			System.out.println("Time needed to build the index of the k closest nodes " 
+					+ Math.round(indexSeconds * 1000) / 1000.0 + " seconds");
+		}
+		System.out.println("=========== End Workload ===========");
+	}
+
+	/**
+	 * Returns the description of the target distribution
+	 */
+	private String describeTargets() {
+		if (targets.equals("zipf"))
+			return "zipf (s = " + exponent + ", " + hotKeys + " hot keys)";
+		return targets;
+	}
+
+	/**
+	 * Prints a row of the table of the percentiles
+	 */
+	private static void printPercentiles(String name, Histogram h) {
+		System.out.printf("%-38s %10d %8.2f %6d %6d %6d %6d %6d%n", name, h.getCount(), h.getMean(),
+				h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+				h.getValueAtPercentile(99.9), h.getMax());
+	}
+
+	/**
+	 * Returns an identifier drawn uniformly in [0, 2^m)
+	 */
+	private static NodeId randomId(int m, Random rand) {
+		return new NodeId(rand.nextLong(), rand.nextLong(), rand.nextLong()).mask(m);
+	}
+
+	/**
+	 * A zipf distribution over the ranks [0, size): the rank r is drawn with probability
+	 * proportional to 1 / (r + 1)^s, by binary search in the cumulative distribution (the
+	 * ValueWorkload draws its keys in the same way)
+	 */
+	static final class Zipf {
+		private final double[] cumulative;
+
+		Zipf(int size, double s) {
+			cumulative = new double[size];
+			double sum = 0;
+			for (int r = 0; r < size; r++) {
+				sum += 1 / Math.pow(r + 1, s);
+				cumulative[r] = sum;
+			}
+			for (int r = 0; r < size; r++)
+				cumulative[r] /= sum;
+		}
+
+		int sample(Random rand) {
+			return sample(rand.nextDouble());
+		}
+
+		int sample(double u) {
+			int low = 0, high = cumulative.length - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cumulative[mid] < u)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+package kademlia;
+
+import java.util.Arrays;
+
+/**
+ * This class models an index over the identifiers of all the nodes of the network, which
+ * finds the exact k closest nodes (XOR metric) to any identifier, to verify the results
+ * of the lookups. The handles are sorted by identifier, and a compressed binary trie
+ * (a Patricia trie) is built over them: its leaves are the sorted handles, and every
+ * internal node splits a range of leaves sharing the same prefix at the highest bit
+ * where they differ. Since that bit changes exactly once in the range, the trie is the
+ * Cartesian tree of the highest differing bits of the adjacent identifiers, built in O(n)
+ * with a stack after the sort. The sort does not box the handles: every handle is packed
+ * in a long under the highest bits of its identifier, the longs are sorted, and the runs
+ * of handles with the same highest bits are sorted again by the following bits.
+ * A query descends the trie following the bits of the target, then goes back up: the
+ * subtrees left aside are closer the deeper they are, so each of them is either taken
+ * whole (if it fits in the k nodes still missing) or descended as well. A query costs
+ * O(depth + k), where the depth is about log n for random identifiers.
+ * The index is a snapshot: nodes registered after it is built are not in it, and it
+ * can also be built over a subset of the nodes
+ *
+ * @author Lorenzo Bellomo
+ *
+ */
+public class XorIndex {
+
+	/* Private Fields */
+
+	// The handles sorted by identifier (the leaves of the trie)
+	private final int[] handles;
+	// The internal node i splits the leaves i and i + 1, and has its leaves in [lo[i], hi[i]).
+	// A child c >= 0 is an internal node, c < 0 is the leaf ~c
+	private final int[] left, right, lo, hi;
+	private final byte[] bit;
+	private final int root;
+
+	/* Constructors */
+
+	/**
+	 * Constructor, it builds the index of all the nodes registered in the registry
+	 * @param registry the registry of the nodes
+	 */
+	public XorIndex(NodeRegistry registry) {
+		this(registry, null, registry.size());
+	}
+
+	/**
+	 * Constructor, it builds the index of a subset of the nodes (for instance, the nodes
+	 * online during the churn simulation)
+	 * @param registry the registry of the nodes
+	 * @param subset the handles of the nodes in the index, null for [0, count)
+	 * @param count the number of handles in the index
+	 */
+	public XorIndex(NodeRegistry registry, int[] subset, int count) {
+		int n = count;
+		long[] keys = new long[n];
+		int maxHandle = 0, length = 0;
+		for (int i = 0; i < n; i++) {
+			int handle = (subset == null) ? i : subset[i];
+			keys[i] = handle;
+			maxHandle = Math.max(maxHandle, handle);
+			length = Math.max(length, bitLength(registry.getId(handle)));
+		}
+		// The keys are positive: the handle in the lowest bits, the identifier bits above it
+		int handleBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxHandle));
+		int prefixBits = 63 - handleBits;
+		sortByIds(registry, keys, 0, n, Math.max(0, length - prefixBits), handleBits, prefixBits);
+		handles = new int[n];
+		long handleMask = (1L << handleBits) - 1;
+		for (int i = 0; i < n; i++)
+			handles[i] = (int) (keys[i] & handleMask);
+
+		int internal = Math.max(0, n - 1);
+		left = new int[internal];
+		right = new int[internal];
+		lo = new int[internal];
+		hi = new int[internal];
+		bit = new byte[internal];
+		for (int i = 0; i < internal; i++) {
+			bit[i] = (byte) registry.getId(handles[i]).bucketIndex(registry.getId(handles[i + 1]));
+			left[i] = ~i;
+			right[i] = ~(i + 1);
+		}
+		// The Cartesian tree: the stack holds the internal nodes with decreasing bits
+		int[] stack = new int[internal];
+		int top = 0;
+		for (int i = 0; i < internal; i++) {
+			int last = -1;
+			while (top > 0 && bitAt(stack[top - 1]) < bitAt(i)) {
+				last = stack[--top];
+				hi[last] = i + 1;
+			}
+			if (last != -1)
+				left[i] = last;
+			if (top > 0)
+				right[stack[top - 1]] = i;
+			lo[i] = (top > 0) ? stack[top - 1] + 1 : 0;
+			stack[top++] = i;
+		}
+		while (top > 0)
+			hi[stack[--top]] = n;
+		root = (internal > 0) ? stack[0] : (n == 1 ? ~0 : -1);
+	}
+
+	/* Methods */
+
+	/**
+	 * Finds the nodes closest to the target, as many as the length of the buffer. The
+	 * handles are not sorted by distance
+	 * @param target the target identifier
+	 * @param closest the buffer where the handles are written, its length is k
+	 * @return the number of handles written, min(k, number of nodes)
+	 */
+	public int closest(NodeId target, int[] closest) {
+		int k = closest.length;
+		if (handles.length == 0 || k == 0)
+			return 0;
+		// The subtrees left aside, the deepest one on top (at most one per bit)
+		int[] aside = new int[NodeId.MAX_BITS + 1];
+		int top = 0, found = 0;
+		int node = root;
+		while (true) {
+			// I follow the bits of the target down to a leaf
+			while (node >= 0) {
+				if (target.testBit(bitAt(node))) {
+					aside[top++] = left[node];
+					node = right[node];
+				} else {
+					aside[top++] = right[node];
+					node = left[node];
+				}
+			}
+			closest[found++] = handles[~node];
+			// I take the subtrees left aside, from the closest one, as long as they fit
+			boolean descend = false;
+			while (found < k && top > 0) {
+				int subtree = aside[--top];
+				if (subtree < 0) {
+					closest[found++] = handles[~subtree];
+				} else if (hi[subtree] - lo[subtree] <= k - found) {
+					System.arraycopy(handles, lo[subtree], closest, found, hi[subtree] - lo[subtree]);
+					found += hi[subtree] - lo[subtree];
+				} else {
+					node = subtree;
+					descend = true;
+					break;
+				}
+			}
+			if (!descend)
+				return found;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in the index
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return handles.length;
+	}
+
+	/**
+	 * Sorts the keys in [from, to) by the bits [shift, shift + prefixBits) of the
+	 * identifiers of their handles, then the runs with the same bits by the bits below
+	 */
+	private static void sortByIds(NodeRegistry registry, long[] keys, int from, int to, int shift, int handleBits,
+			int prefixBits) {
+		long handleMask = (1L << handleBits) - 1;
+		for (int i = from; i < to; i++) {
+			int handle = (int) (keys[i] & handleMask);
+			keys[i] = (bitsAt(registry.getId(handle), shift, prefixBits) << handleBits) | handle;
+		}
+		Arrays.parallelSort(keys, from, to);
+		if (shift == 0)
+			return;
+		for (int i = from; i < to;) {
+			int j = i + 1;
+			while (j < to && (keys[j] >>> handleBits) == (keys[i] >>> handleBits))
+				j++;
+			if (j - i > 1)
+				sortByIds(registry, keys, i, j, Math.max(0, shift - prefixBits), handleBits, prefixBits);
+			i = j;
+		}
+	}
+
+	/**
+	 * Returns the bits [shift, shift + count) of the identifier, count < 64
+	 */
+	private static long bitsAt(NodeId id, int shift, int count) {
+		int word = shift >>> 6, offset = shift & 63;
+		long bits = id.word(word) >>> offset;
+		if (offset != 0 && word < 2)
+			bits |= id.word(word + 1) << (64 - offset);
+		return bits & ((1L << count) - 1);
+	}
+
+	/**
+	 * Returns the position of the highest bit set of the identifier, plus one
+	 */
+	private static int bitLength(NodeId id) {
+		for (int word = 2; word >= 0; word--) {
+			if (id.word(word) != 0)
+				return (word << 6) + 64 - Long.numberOfLeadingZeros(id.word(word));
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the bit where the internal node splits its leaves
+	 */
+	private int bitAt(int node) {
+		return bit[node] & 0xFF;
+	}
+
+}